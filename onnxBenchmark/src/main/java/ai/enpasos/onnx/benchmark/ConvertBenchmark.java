@@ -0,0 +1,61 @@
+package ai.enpasos.onnx.benchmark;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import ai.enpasos.mnist.blocks.OnnxHelper;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weight encoding: the boxed {@code float_data} list against the {@code raw_data} bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConvertBenchmark {
+
+    @Param({"4096", "262144", "4194304"})
+    public int size;
+
+    private NDManager manager;
+    private NDArray weights;
+
+    @Setup
+    public void setup() {
+        manager = NDManager.newBaseManager();
+        weights = manager.randomUniform(-1f, 1f, new Shape(size));
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Benchmark
+    public List<Float> boxed() {
+        return OnnxHelper.convert(weights);
+    }
+
+    @Benchmark
+    public ByteString rawData() {
+        return OnnxHelper.convertToRawData(weights);
+    }
+}
@@ -0,0 +1,71 @@
+package ai.enpasos.onnx.benchmark;
+
+import ai.djl.Model;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.enpasos.mnist.blocks.OnnxExportOptions;
+import ai.enpasos.mnist.blocks.OnnxIOExport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OnnxIOExport#onnxExport} of initialized blocks, from the block tree to the file on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final Shape INPUT_SHAPE = new Shape(1, 1, 28, 28);
+
+    @Param({"mnist", "w2d1", "w4d1", "w1d4", "w4d4"})
+    public String variant;
+
+    @Param({"false", "true"})
+    public boolean directWrite;
+
+    private Model model;
+    private Path file;
+    private OnnxExportOptions options;
+
+    @Setup
+    public void setup() throws IOException {
+        Block block = ScaledMnistBlocks.newBlock(variant);
+        model = Model.newInstance("benchmark");
+        model.setBlock(block);
+        block.initialize(model.getNDManager(), DataType.FLOAT32, INPUT_SHAPE);
+        file = Files.createTempFile("benchmark", ".onnx");
+        options = OnnxExportOptions.builder().directWrite(directWrite).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        model.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void export() {
+        OnnxIOExport.onnxExport(model, List.of(INPUT_SHAPE), file.toString(), options);
+    }
+}
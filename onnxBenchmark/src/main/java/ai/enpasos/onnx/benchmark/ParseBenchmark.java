@@ -0,0 +1,54 @@
+package ai.enpasos.onnx.benchmark;
+
+import ai.enpasos.onnx.ModelProto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an exported model back into a {@link ModelProto}, from memory and from the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"./models/mnist.onnx"})
+    public String modelPath;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Files.readAllBytes(Paths.get(modelPath));
+    }
+
+    @Benchmark
+    public ModelProto parseBytes() throws IOException {
+        return ModelProto.parseFrom(bytes);
+    }
+
+    @Benchmark
+    public ModelProto parseFile() throws IOException {
+        try (InputStream is = Files.newInputStream(Paths.get(modelPath))) {
+            return ModelProto.parseFrom(is);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ai.enpasos.onnx.benchmark;
+
+import ai.djl.MalformedModelException;
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.djl.translate.NoBatchifyTranslator;
+import ai.djl.translate.TranslateException;
+import ai.djl.translate.TranslatorContext;
+import ai.enpasos.mnist.blocks.MnistBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predictor latency for one image and for a batch of images in a single tensor.
+ *
+ * <p>OnnxRuntime runs the exported model, PyTorch runs the DJL {@link MnistBlock} it was exported from
+ * (with freshly initialized weights, which does not change the cost). Batches above 1 on OnnxRuntime
+ * need a model exported with a symbolic batch dimension, as the default {@code ./models/mnist.onnx};
+ * pass others with {@code -p modelPath=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredictorBenchmark {
+
+    private static final int IMAGE_SIZE = 28;
+
+    @Param({"OnnxRuntime", "PyTorch"})
+    public String engine;
+
+    @Param({"1", "32"})
+    public int batchSize;
+
+    @Param({"./models/mnist.onnx"})
+    public String modelPath;
+
+    private Model model;
+    private Predictor<float[], float[]> predictor;
+    private float[] input;
+
+    @Setup
+    public void setup() throws IOException, MalformedModelException {
+        model = Model.newInstance("mnist", engine);
+        if (engine.equals("OnnxRuntime")) {
+            try (InputStream is = Files.newInputStream(Paths.get(modelPath))) {
+                model.load(is);
+            }
+        } else {
+            Block block = MnistBlock.newMnistBlock();
+            model.setBlock(block);
+            block.initialize(model.getNDManager(), DataType.FLOAT32, new Shape(1, 1, IMAGE_SIZE, IMAGE_SIZE));
+        }
+        predictor = model.newPredictor(new ImageBatchTranslator());
+
+        Random random = new Random(42);
+        input = new float[batchSize * IMAGE_SIZE * IMAGE_SIZE];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextFloat();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        predictor.close();
+        model.close();
+    }
+
+    @Benchmark
+    public float[] predict() throws TranslateException {
+        return predictor.predict(input);
+    }
+
+    /**
+     * Pixels of whole batches in, logits out, without any image decoding in the measurement.
+     */
+    private static class ImageBatchTranslator implements NoBatchifyTranslator<float[], float[]> {
+
+        @Override
+        public NDList processInput(TranslatorContext ctx, float[] pixels) {
+            long batch = pixels.length / (IMAGE_SIZE * IMAGE_SIZE);
+            return new NDList(ctx.getNDManager().create(pixels, new Shape(batch, 1, IMAGE_SIZE, IMAGE_SIZE)));
+        }
+
+        @Override
+        public float[] processOutput(TranslatorContext ctx, NDList list) {
+            return list.singletonOrThrow().toFloatArray();
+        }
+    }
+}
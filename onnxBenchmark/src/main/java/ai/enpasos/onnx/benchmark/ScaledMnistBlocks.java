@@ -0,0 +1,73 @@
+package ai.enpasos.onnx.benchmark;
+
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.enpasos.mnist.blocks.MnistBlock;
+import ai.enpasos.mnist.blocks.ext.ActivationExt;
+import ai.enpasos.mnist.blocks.ext.BlocksExt;
+import ai.enpasos.mnist.blocks.ext.Conv2dExt;
+import ai.enpasos.mnist.blocks.ext.LayerNormExt;
+import ai.enpasos.mnist.blocks.ext.LinearExt;
+import ai.enpasos.mnist.blocks.ext.ParallelBlockWithConcatChannelJoinExt;
+import ai.enpasos.mnist.blocks.ext.PoolExt;
+import ai.enpasos.mnist.blocks.ext.RescaleBlockExt;
+import ai.enpasos.mnist.blocks.ext.SequentialBlockExt;
+
+import java.util.Arrays;
+
+/**
+ * {@link MnistBlock} and larger variants of it, to see how export cost grows with the model.
+ */
+final class ScaledMnistBlocks {
+
+    private ScaledMnistBlocks() {
+    }
+
+    /**
+     * @param variant {@code mnist}, or {@code w<width>d<depth>} like {@code w4d1}
+     */
+    static Block newBlock(String variant) {
+        if (variant.equals("mnist")) {
+            return MnistBlock.newMnistBlock();
+        }
+        int d = variant.indexOf('d');
+        return newBlock(Integer.parseInt(variant.substring(1, d)), Integer.parseInt(variant.substring(d + 1)));
+    }
+
+    /**
+     * The MnistBlock layout with all filter counts multiplied by {@code width} and the last
+     * conv, layer norm, relu group repeated {@code depth} times.
+     */
+    static SequentialBlockExt newBlock(int width, int depth) {
+        SequentialBlockExt block = new SequentialBlockExt();
+        block.add(conv(8 * width, 5))
+                .add(LayerNormExt.builder().build())
+                .add(ActivationExt.reluBlock())
+                .add(PoolExt.maxPool2dBlock(new Shape(2, 2), new Shape(2, 2)))   // 28 -> 14
+                .add(new ParallelBlockWithConcatChannelJoinExt(Arrays.asList(conv(16 * width, 5), conv(16 * width, 3))))
+                .add(LayerNormExt.builder().build())
+                .add(ActivationExt.reluBlock())
+                .add(PoolExt.maxPool2dBlock(new Shape(2, 2), new Shape(2, 2)));  // 14 -> 7
+        for (int i = 0; i < depth; i++) {
+            block.add(conv(32 * width, 3))
+                    .add(LayerNormExt.builder().build())
+                    .add(ActivationExt.reluBlock());
+        }
+        block.add(new RescaleBlockExt())
+                .add(BlocksExt.batchFlattenBlock())
+                .add(LinearExt.builder()
+                        .setUnits(10)
+                        .optBias(true)
+                        .build());
+        return block;
+    }
+
+    private static Block conv(int filters, int kernel) {
+        return Conv2dExt.builder()
+                .setFilters(filters)
+                .setKernelShape(new Shape(kernel, kernel))
+                .optBias(false)
+                .optPadding(new Shape(kernel / 2, kernel / 2))
+                .build();
+    }
+}
@@ -0,0 +1,39 @@
+package ai.enpasos.onnx.interpreter;
+
+import ai.enpasos.onnx.AttributeProto;
+import ai.enpasos.onnx.NodeProto;
+
+import java.util.Optional;
+
+/**
+ * Typed access to the attributes of a node with the defaults given by the operator spec.
+ */
+final class Attributes {
+
+    private Attributes() {
+    }
+
+    static Optional<AttributeProto> find(NodeProto node, String name) {
+        return node.getAttributeList().stream()
+            .filter(a -> a.getName().equals(name))
+            .findFirst();
+    }
+
+    static long getInt(NodeProto node, String name, long defaultValue) {
+        return find(node, name).map(AttributeProto::getI).orElse(defaultValue);
+    }
+
+    static float getFloat(NodeProto node, String name, float defaultValue) {
+        return find(node, name).map(AttributeProto::getF).orElse(defaultValue);
+    }
+
+    static String getString(NodeProto node, String name, String defaultValue) {
+        return find(node, name).map(a -> a.getS().toStringUtf8()).orElse(defaultValue);
+    }
+
+    static long[] getInts(NodeProto node, String name, long[] defaultValue) {
+        return find(node, name)
+            .map(a -> a.getIntsList().stream().mapToLong(Long::longValue).toArray())
+            .orElse(defaultValue);
+    }
+}
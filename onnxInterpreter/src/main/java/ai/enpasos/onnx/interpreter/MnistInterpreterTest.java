@@ -0,0 +1,85 @@
+package ai.enpasos.onnx.interpreter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Classifies the MNIST test images with {@link OnnxInterpreter}, the pure Java counterpart of DJLTest.
+ */
+@Slf4j
+public class MnistInterpreterTest {
+
+    public static void main(String[] args) throws Exception {
+        long start = System.nanoTime();
+        OnnxInterpreter interpreter = OnnxInterpreter.load(Paths.get("./models/mnist.onnx"));
+        log.info("model loaded in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+        testClassifications(interpreter, Paths.get("./onnxWithRuntime/mnist-test-data.zip"));
+    }
+
+    /**
+     * Reads the PNG entries of the test archive in place; the label is the entry's directory name.
+     */
+    private static void testClassifications(OnnxInterpreter interpreter, Path zipPath) throws IOException {
+        int errors = 0;
+        int total = 0;
+        try (ZipFile zip = new ZipFile(zipPath.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".png")) {
+                    continue;
+                }
+                String[] segments = name.split("/");
+                int label = Integer.parseInt(segments[segments.length - 2]);
+                BufferedImage image;
+                try (InputStream is = zip.getInputStream(entry)) {
+                    image = ImageIO.read(is);
+                }
+                float[] logits = interpreter.run(toTensor(image)).getData();
+                if (argMax(logits) != label) {
+                    errors++;
+                }
+                total++;
+            }
+        }
+        log.info("{} wrong classified images in {} non trained testimages", errors, total);
+    }
+
+    /**
+     * Grayscale pixels scaled to [0, 1] as a 1x1xHxW tensor, like NDImageUtils.toTensor.
+     */
+    private static Tensor toTensor(BufferedImage image) {
+        Raster raster = image.getRaster();
+        int height = image.getHeight();
+        int width = image.getWidth();
+        float[] data = new float[height * width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                data[y * width + x] = raster.getSample(x, y, 0) / 255f;
+            }
+        }
+        return Tensor.of(new long[]{1, 1, height, width}, data);
+    }
+
+    private static int argMax(float[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
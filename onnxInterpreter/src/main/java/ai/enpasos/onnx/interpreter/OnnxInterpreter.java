@@ -0,0 +1,201 @@
+package ai.enpasos.onnx.interpreter;
+
+import ai.enpasos.onnx.GraphProto;
+import ai.enpasos.onnx.ModelProto;
+import ai.enpasos.onnx.NodeProto;
+import ai.enpasos.onnx.StringStringEntryProto;
+import ai.enpasos.onnx.TensorProto;
+import ai.enpasos.onnx.ValueInfoProto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the ONNX models written by {@code OnnxIOExport} on plain float arrays, without a native
+ * runtime. Only the operator set used by the exporters is implemented; loading a model with any
+ * other operator fails fast.
+ */
+public class OnnxInterpreter {
+
+    static final Set<String> SUPPORTED_OPERATORS = Set.of(
+        "Conv", "MeanVarianceNormalization", "LayerNormalization", "Mul", "Add", "Sub", "Div",
+        "Relu", "MaxPool", "Concat", "ReduceMin", "ReduceMax", "Reshape", "MatMul", "Gemm", "Identity");
+
+    private final List<NodeProto> nodes;
+    private final Map<String, Tensor> initializers;
+    private final List<String> inputNames;
+    private final List<String> outputNames;
+
+    /**
+     * For each value the index of the last node reading it, so intermediates can be released early.
+     */
+    private final Map<String, Integer> lastUse = new HashMap<>();
+
+    private OnnxInterpreter(GraphProto graph, Path baseDir) throws IOException {
+        this.nodes = graph.getNodeList();
+        this.initializers = new HashMap<>();
+        for (TensorProto tensor : graph.getInitializerList()) {
+            initializers.put(tensor.getName(), toTensor(tensor, baseDir));
+        }
+        this.inputNames = graph.getInputList().stream()
+            .map(ValueInfoProto::getName)
+            .filter(name -> !initializers.containsKey(name))
+            .collect(Collectors.toList());
+        this.outputNames = graph.getOutputList().stream()
+            .map(ValueInfoProto::getName)
+            .collect(Collectors.toList());
+
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeProto node = nodes.get(i);
+            if (!SUPPORTED_OPERATORS.contains(node.getOpType())) {
+                throw new UnsupportedOperationException("operator " + node.getOpType() + " is not supported");
+            }
+            for (String input : node.getInputList()) {
+                lastUse.put(input, i);
+            }
+        }
+    }
+
+    public static OnnxInterpreter load(Path modelPath) throws IOException {
+        try (InputStream is = Files.newInputStream(modelPath)) {
+            ModelProto model = ModelProto.parseFrom(is);
+            return new OnnxInterpreter(model.getGraph(), modelPath.toAbsolutePath().getParent());
+        }
+    }
+
+    public List<String> getInputNames() {
+        return inputNames;
+    }
+
+    public List<String> getOutputNames() {
+        return outputNames;
+    }
+
+    /**
+     * Runs a model with a single input and returns its first output.
+     */
+    public Tensor run(Tensor input) {
+        return run(Map.of(inputNames.get(0), input)).get(outputNames.get(0));
+    }
+
+    public Map<String, Tensor> run(Map<String, Tensor> inputs) {
+        Map<String, Tensor> values = new HashMap<>(initializers);
+        values.putAll(inputs);
+
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeProto node = nodes.get(i);
+            Tensor[] in = node.getInputList().stream()
+                .map(name -> name.isEmpty() ? null : values.get(name))
+                .toArray(Tensor[]::new);
+            values.put(node.getOutput(0), execute(node, in));
+
+            for (String input : node.getInputList()) {
+                if (lastUse.get(input) == i && !initializers.containsKey(input) && !outputNames.contains(input)) {
+                    values.remove(input);
+                }
+            }
+        }
+
+        Map<String, Tensor> outputs = new LinkedHashMap<>();
+        outputNames.forEach(name -> outputs.put(name, values.get(name)));
+        return outputs;
+    }
+
+    private static Tensor execute(NodeProto node, Tensor[] in) {
+        switch (node.getOpType()) {
+            case "Conv":
+                return Operators.conv(node, in[0], in[1], in.length > 2 ? in[2] : null);
+            case "MeanVarianceNormalization":
+                return Operators.meanVarianceNormalization(node, in[0]);
+            case "LayerNormalization":
+                return Operators.layerNormalization(node, in[0], in[1], in.length > 2 ? in[2] : null);
+            case "Mul":
+                return Operators.binary(in[0], in[1], (a, b) -> a * b);
+            case "Add":
+                return Operators.binary(in[0], in[1], Float::sum);
+            case "Sub":
+                return Operators.binary(in[0], in[1], (a, b) -> a - b);
+            case "Div":
+                return Operators.binary(in[0], in[1], (a, b) -> a / b);
+            case "Relu":
+                return Operators.relu(in[0]);
+            case "MaxPool":
+                return Operators.maxPool(node, in[0]);
+            case "Concat":
+                return Operators.concat(node, in);
+            case "ReduceMin":
+                return Operators.reduce(node, in[0], false);
+            case "ReduceMax":
+                return Operators.reduce(node, in[0], true);
+            case "Reshape":
+                return Operators.reshape(in[0], in[1]);
+            case "MatMul":
+                return Operators.matMul(in[0], in[1]);
+            case "Gemm":
+                return Operators.gemm(node, in[0], in[1], in.length > 2 ? in[2] : null);
+            case "Identity":
+                return in[0];
+            default:
+                throw new UnsupportedOperationException("operator " + node.getOpType() + " is not supported");
+        }
+    }
+
+    private static Tensor toTensor(TensorProto tensor, Path baseDir) throws IOException {
+        long[] shape = tensor.getDimsList().stream().mapToLong(Long::longValue).toArray();
+        ByteBuffer raw = tensor.getDataLocation() == TensorProto.DataLocation.EXTERNAL
+            ? readExternalData(tensor, baseDir)
+            : tensor.getRawData().asReadOnlyByteBuffer();
+        raw.order(ByteOrder.LITTLE_ENDIAN);
+
+        switch (tensor.getDataType()) {
+            case TensorProto.DataType.FLOAT_VALUE:
+                float[] data;
+                if (raw.hasRemaining()) {
+                    data = new float[raw.remaining() / Float.BYTES];
+                    raw.asFloatBuffer().get(data);
+                } else {
+                    data = new float[tensor.getFloatDataCount()];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = tensor.getFloatData(i);
+                    }
+                }
+                return Tensor.of(shape, data);
+            case TensorProto.DataType.INT64_VALUE:
+                long[] longData;
+                if (raw.hasRemaining()) {
+                    longData = new long[raw.remaining() / Long.BYTES];
+                    raw.asLongBuffer().get(longData);
+                } else {
+                    longData = tensor.getInt64DataList().stream().mapToLong(Long::longValue).toArray();
+                }
+                return Tensor.ofLongs(shape, longData);
+            default:
+                throw new UnsupportedOperationException("initializer " + tensor.getName() + " has unsupported data type " + tensor.getDataType());
+        }
+    }
+
+    /**
+     * Memory-maps the region of the side file referenced by the external data entries.
+     */
+    private static ByteBuffer readExternalData(TensorProto tensor, Path baseDir) throws IOException {
+        Map<String, String> entries = tensor.getExternalDataList().stream()
+            .collect(Collectors.toMap(StringStringEntryProto::getKey, StringStringEntryProto::getValue));
+        Path location = baseDir.resolve(entries.get("location"));
+        try (FileChannel channel = FileChannel.open(location)) {
+            long offset = Long.parseLong(entries.getOrDefault("offset", "0"));
+            long length = entries.containsKey("length") ? Long.parseLong(entries.get("length")) : channel.size() - offset;
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+    }
+}
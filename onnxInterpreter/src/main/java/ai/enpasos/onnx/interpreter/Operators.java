@@ -0,0 +1,466 @@
+package ai.enpasos.onnx.interpreter;
+
+import ai.enpasos.onnx.NodeProto;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static ai.enpasos.onnx.interpreter.Attributes.getFloat;
+import static ai.enpasos.onnx.interpreter.Attributes.getInt;
+import static ai.enpasos.onnx.interpreter.Attributes.getInts;
+import static ai.enpasos.onnx.interpreter.Attributes.getString;
+
+/**
+ * Float32 implementations of the ONNX operators emitted by the exporters in onnxModelGen.
+ * Layouts follow the ONNX spec (NCHW for Conv and MaxPool), binary elementwise operators
+ * use numpy style broadcasting.
+ */
+final class Operators {
+
+    private Operators() {
+    }
+
+    interface FloatBinaryOperator {
+        float apply(float a, float b);
+    }
+
+    // elementwise
+
+    static Tensor relu(Tensor x) {
+        float[] in = x.getData();
+        float[] out = new float[in.length];
+        for (int i = 0; i < in.length; i++) {
+            out[i] = Math.max(in[i], 0f);
+        }
+        return Tensor.of(x.getShape(), out);
+    }
+
+    static Tensor binary(Tensor a, Tensor b, FloatBinaryOperator op) {
+        float[] ad = a.getData();
+        float[] bd = b.getData();
+        if (Arrays.equals(a.getShape(), b.getShape())) {
+            float[] out = new float[ad.length];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = op.apply(ad[i], bd[i]);
+            }
+            return Tensor.of(a.getShape(), out);
+        }
+
+        int rank = Math.max(a.rank(), b.rank());
+        long[] as = leftPad(a.getShape(), rank);
+        long[] bs = leftPad(b.getShape(), rank);
+        long[] os = new long[rank];
+        for (int d = 0; d < rank; d++) {
+            if (as[d] != bs[d] && as[d] != 1 && bs[d] != 1) {
+                throw new IllegalArgumentException("cannot broadcast " + Arrays.toString(a.getShape()) + " and " + Arrays.toString(b.getShape()));
+            }
+            os[d] = Math.max(as[d], bs[d]);
+        }
+        int[] sa = broadcastStrides(as);
+        int[] sb = broadcastStrides(bs);
+        float[] out = new float[Tensor.size(os)];
+        int[] idx = new int[rank];
+        int ia = 0;
+        int ib = 0;
+        for (int i = 0; i < out.length; i++) {
+            out[i] = op.apply(ad[ia], bd[ib]);
+            for (int d = rank - 1; d >= 0; d--) {
+                idx[d]++;
+                ia += sa[d];
+                ib += sb[d];
+                if (idx[d] < os[d]) {
+                    break;
+                }
+                ia -= sa[d] * os[d];
+                ib -= sb[d] * os[d];
+                idx[d] = 0;
+            }
+        }
+        return Tensor.of(os, out);
+    }
+
+    // normalization
+
+    static Tensor meanVarianceNormalization(NodeProto node, Tensor x) {
+        long[] axes = getInts(node, "axes", new long[]{0, 2, 3});
+        long[] reducedShape = reducedShape(x.getShape(), axes);
+        int[] group = reductionIndex(x.getShape(), reducedShape);
+        int groups = Tensor.size(reducedShape);
+        int count = x.size() / groups;
+
+        float[] in = x.getData();
+        double[] sum = new double[groups];
+        double[] sumSquares = new double[groups];
+        for (int i = 0; i < in.length; i++) {
+            sum[group[i]] += in[i];
+            sumSquares[group[i]] += (double) in[i] * in[i];
+        }
+        float[] mean = new float[groups];
+        float[] std = new float[groups];
+        for (int g = 0; g < groups; g++) {
+            double m = sum[g] / count;
+            mean[g] = (float) m;
+            std[g] = (float) Math.sqrt(Math.max(sumSquares[g] / count - m * m, 0));
+        }
+        float[] out = new float[in.length];
+        for (int i = 0; i < in.length; i++) {
+            out[i] = (in[i] - mean[group[i]]) / (std[group[i]] + 1e-9f);
+        }
+        return Tensor.of(x.getShape(), out);
+    }
+
+    static Tensor layerNormalization(NodeProto node, Tensor x, Tensor scale, Tensor bias) {
+        int axis = normalizeAxis(getInt(node, "axis", -1), x.rank());
+        float epsilon = getFloat(node, "epsilon", 1e-5f);
+        int inner = Tensor.size(Arrays.copyOfRange(x.getShape(), axis, x.rank()));
+        int outer = x.size() / inner;
+
+        float[] in = x.getData();
+        float[] s = scale.getData();
+        float[] b = bias == null ? null : bias.getData();
+        float[] out = new float[in.length];
+        for (int o = 0; o < outer; o++) {
+            int offset = o * inner;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int i = 0; i < inner; i++) {
+                float v = in[offset + i];
+                sum += v;
+                sumSquares += (double) v * v;
+            }
+            double mean = sum / inner;
+            double variance = Math.max(sumSquares / inner - mean * mean, 0);
+            float invStd = (float) (1 / Math.sqrt(variance + epsilon));
+            for (int i = 0; i < inner; i++) {
+                float v = (float) ((in[offset + i] - mean) * invStd) * s[i % s.length];
+                out[offset + i] = b == null ? v : v + b[i % b.length];
+            }
+        }
+        return Tensor.of(x.getShape(), out);
+    }
+
+    // convolution and pooling
+
+    static Tensor conv(NodeProto node, Tensor x, Tensor w, Tensor bias) {
+        long[] xs = x.getShape();
+        long[] ws = w.getShape();
+        int n = (int) xs[0];
+        int channels = (int) xs[1];
+        int height = (int) xs[2];
+        int width = (int) xs[3];
+        int filters = (int) ws[0];
+        int groupChannels = (int) ws[1];
+        int kh = (int) ws[2];
+        int kw = (int) ws[3];
+        int group = (int) getInt(node, "group", 1);
+        long[] strides = getInts(node, "strides", new long[]{1, 1});
+        long[] dilations = getInts(node, "dilations", new long[]{1, 1});
+        long[] pads = getInts(node, "pads", new long[]{0, 0, 0, 0});
+        String autoPad = getString(node, "auto_pad", "NOTSET");
+
+        int[] gy = geometry(height, kh, strides[0], dilations[0], autoPad, pads[0], pads[2]);
+        int[] gx = geometry(width, kw, strides[1], dilations[1], autoPad, pads[1], pads[3]);
+        int oh = gy[0];
+        int ow = gx[0];
+        int sy = (int) strides[0];
+        int sx = (int) strides[1];
+        int dy = (int) dilations[0];
+        int dx = (int) dilations[1];
+        int filtersPerGroup = filters / group;
+
+        float[] in = x.getData();
+        float[] weights = w.getData();
+        float[] b = bias == null ? null : bias.getData();
+        float[] out = new float[n * filters * oh * ow];
+
+        for (int img = 0; img < n; img++) {
+            for (int m = 0; m < filters; m++) {
+                int outOffset = (img * filters + m) * oh * ow;
+                if (b != null) {
+                    Arrays.fill(out, outOffset, outOffset + oh * ow, b[m]);
+                }
+                int channelStart = (m / filtersPerGroup) * groupChannels;
+                for (int c = 0; c < groupChannels; c++) {
+                    int inOffset = (img * channels + channelStart + c) * height * width;
+                    for (int ky = 0; ky < kh; ky++) {
+                        for (int kx = 0; kx < kw; kx++) {
+                            float wv = weights[((m * groupChannels + c) * kh + ky) * kw + kx];
+                            for (int oy = 0; oy < oh; oy++) {
+                                int iy = oy * sy - gy[1] + ky * dy;
+                                if (iy < 0 || iy >= height) {
+                                    continue;
+                                }
+                                int inRow = inOffset + iy * width;
+                                int outRow = outOffset + oy * ow;
+                                for (int ox = 0; ox < ow; ox++) {
+                                    int ix = ox * sx - gx[1] + kx * dx;
+                                    if (ix >= 0 && ix < width) {
+                                        out[outRow + ox] += wv * in[inRow + ix];
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return Tensor.of(new long[]{n, filters, oh, ow}, out);
+    }
+
+    static Tensor maxPool(NodeProto node, Tensor x) {
+        long[] xs = x.getShape();
+        int planes = (int) (xs[0] * xs[1]);
+        int height = (int) xs[2];
+        int width = (int) xs[3];
+        long[] kernel = getInts(node, "kernel_shape", null);
+        long[] strides = getInts(node, "strides", new long[]{1, 1});
+        long[] dilations = getInts(node, "dilations", new long[]{1, 1});
+        long[] pads = getInts(node, "pads", new long[]{0, 0, 0, 0});
+        String autoPad = getString(node, "auto_pad", "NOTSET");
+
+        int kh = (int) kernel[0];
+        int kw = (int) kernel[1];
+        int[] gy = geometry(height, kh, strides[0], dilations[0], autoPad, pads[0], pads[2]);
+        int[] gx = geometry(width, kw, strides[1], dilations[1], autoPad, pads[1], pads[3]);
+        int oh = gy[0];
+        int ow = gx[0];
+
+        float[] in = x.getData();
+        float[] out = new float[planes * oh * ow];
+        for (int p = 0; p < planes; p++) {
+            int inOffset = p * height * width;
+            for (int oy = 0; oy < oh; oy++) {
+                for (int ox = 0; ox < ow; ox++) {
+                    float max = Float.NEGATIVE_INFINITY;
+                    for (int ky = 0; ky < kh; ky++) {
+                        int iy = (int) (oy * strides[0] - gy[1] + ky * dilations[0]);
+                        if (iy < 0 || iy >= height) {
+                            continue;
+                        }
+                        for (int kx = 0; kx < kw; kx++) {
+                            int ix = (int) (ox * strides[1] - gx[1] + kx * dilations[1]);
+                            if (ix >= 0 && ix < width) {
+                                max = Math.max(max, in[inOffset + iy * width + ix]);
+                            }
+                        }
+                    }
+                    out[(p * oh + oy) * ow + ox] = max;
+                }
+            }
+        }
+        return Tensor.of(new long[]{xs[0], xs[1], oh, ow}, out);
+    }
+
+    /**
+     * Returns the output size and the padding in front for one spatial axis.
+     */
+    private static int[] geometry(long size, long kernel, long stride, long dilation, String autoPad, long padBegin, long padEnd) {
+        long effective = (kernel - 1) * dilation + 1;
+        switch (autoPad) {
+            case "SAME_UPPER":
+            case "SAME_LOWER":
+                long out = (size + stride - 1) / stride;
+                long total = Math.max(0, (out - 1) * stride + effective - size);
+                long begin = autoPad.equals("SAME_UPPER") ? total / 2 : total - total / 2;
+                return new int[]{(int) out, (int) begin};
+            case "VALID":
+                return new int[]{(int) ((size - effective) / stride + 1), 0};
+            default:
+                return new int[]{(int) ((size + padBegin + padEnd - effective) / stride + 1), (int) padBegin};
+        }
+    }
+
+    // reductions
+
+    static Tensor reduce(NodeProto node, Tensor x, boolean max) {
+        long[] axes = getInts(node, "axes", null);
+        if (axes == null) {
+            axes = new long[x.rank()];
+            for (int i = 0; i < axes.length; i++) {
+                axes[i] = i;
+            }
+        }
+        long[] reducedShape = reducedShape(x.getShape(), axes);
+        int[] group = reductionIndex(x.getShape(), reducedShape);
+        float[] in = x.getData();
+        float[] out = new float[Tensor.size(reducedShape)];
+        Arrays.fill(out, max ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY);
+        for (int i = 0; i < in.length; i++) {
+            out[group[i]] = max ? Math.max(out[group[i]], in[i]) : Math.min(out[group[i]], in[i]);
+        }
+        if (getInt(node, "keepdims", 1) == 1) {
+            return Tensor.of(reducedShape, out);
+        }
+        int rank = x.rank();
+        Set<Integer> reduced = Arrays.stream(axes).mapToObj(a -> normalizeAxis(a, rank)).collect(Collectors.toSet());
+        long[] shape = IntStream.range(0, rank)
+            .filter(i -> !reduced.contains(i))
+            .mapToLong(i -> reducedShape[i])
+            .toArray();
+        return Tensor.of(shape, out);
+    }
+
+    /**
+     * The shape with all reduced axes set to 1 (keepdims layout).
+     */
+    private static long[] reducedShape(long[] shape, long[] axes) {
+        long[] reduced = shape.clone();
+        for (long axis : axes) {
+            reduced[normalizeAxis(axis, shape.length)] = 1;
+        }
+        return reduced;
+    }
+
+    /**
+     * For every element of a tensor of the given shape the flat index of its group in the reduced shape.
+     */
+    private static int[] reductionIndex(long[] shape, long[] reducedShape) {
+        int rank = shape.length;
+        int[] strides = broadcastStrides(reducedShape);
+        int[] group = new int[Tensor.size(shape)];
+        int[] idx = new int[rank];
+        int g = 0;
+        for (int i = 0; i < group.length; i++) {
+            group[i] = g;
+            for (int d = rank - 1; d >= 0; d--) {
+                idx[d]++;
+                g += strides[d];
+                if (idx[d] < shape[d]) {
+                    break;
+                }
+                g -= strides[d] * shape[d];
+                idx[d] = 0;
+            }
+        }
+        return group;
+    }
+
+    // shape manipulation
+
+    static Tensor concat(NodeProto node, Tensor[] inputs) {
+        int rank = inputs[0].rank();
+        int axis = normalizeAxis(getInt(node, "axis", 0), rank);
+        long[] shape = inputs[0].getShape().clone();
+        shape[axis] = Arrays.stream(inputs).mapToLong(t -> t.getShape()[axis]).sum();
+        int outer = Tensor.size(Arrays.copyOfRange(shape, 0, axis));
+
+        float[] out = new float[Tensor.size(shape)];
+        int position = 0;
+        for (int o = 0; o < outer; o++) {
+            for (Tensor t : inputs) {
+                int chunk = t.size() / outer;
+                System.arraycopy(t.getData(), o * chunk, out, position, chunk);
+                position += chunk;
+            }
+        }
+        return Tensor.of(shape, out);
+    }
+
+    static Tensor reshape(Tensor x, Tensor shapeTensor) {
+        long[] target = shapeTensor.getLongData().clone();
+        int inferred = -1;
+        long known = 1;
+        for (int i = 0; i < target.length; i++) {
+            if (target[i] == 0) {
+                target[i] = x.getShape()[i];
+            }
+            if (target[i] == -1) {
+                inferred = i;
+            } else {
+                known *= target[i];
+            }
+        }
+        if (inferred >= 0) {
+            target[inferred] = x.size() / known;
+        }
+        return x.reshape(target);
+    }
+
+    // matrix products
+
+    static Tensor matMul(Tensor a, Tensor b) {
+        if (b.rank() != 2) {
+            throw new UnsupportedOperationException("MatMul supports a 2-D right operand only");
+        }
+        long[] as = a.getShape();
+        int k = (int) as[as.length - 1];
+        int m = a.size() / k;
+        int n = (int) b.getShape()[1];
+        float[] out = multiply(a.getData(), false, b.getData(), false, m, k, n);
+        long[] shape = as.clone();
+        shape[shape.length - 1] = n;
+        return Tensor.of(shape, out);
+    }
+
+    static Tensor gemm(NodeProto node, Tensor a, Tensor b, Tensor c) {
+        boolean transA = getInt(node, "transA", 0) == 1;
+        boolean transB = getInt(node, "transB", 0) == 1;
+        float alpha = getFloat(node, "alpha", 1f);
+        float beta = getFloat(node, "beta", 1f);
+        int m = (int) (transA ? a.getShape()[1] : a.getShape()[0]);
+        int k = (int) (transA ? a.getShape()[0] : a.getShape()[1]);
+        int n = (int) (transB ? b.getShape()[0] : b.getShape()[1]);
+
+        float[] out = multiply(a.getData(), transA, b.getData(), transB, m, k, n);
+        if (alpha != 1f) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] *= alpha;
+            }
+        }
+        Tensor result = Tensor.of(new long[]{m, n}, out);
+        if (c == null) {
+            return result;
+        }
+        return binary(result, c, (y, z) -> y + beta * z);
+    }
+
+    private static float[] multiply(float[] a, boolean transA, float[] b, boolean transB, int m, int k, int n) {
+        float[] out = new float[m * n];
+        for (int i = 0; i < m; i++) {
+            for (int p = 0; p < k; p++) {
+                float av = transA ? a[p * m + i] : a[i * k + p];
+                int row = i * n;
+                if (transB) {
+                    for (int j = 0; j < n; j++) {
+                        out[row + j] += av * b[j * k + p];
+                    }
+                } else {
+                    int bRow = p * n;
+                    for (int j = 0; j < n; j++) {
+                        out[row + j] += av * b[bRow + j];
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    // helpers
+
+    static int normalizeAxis(long axis, int rank) {
+        return (int) (axis < 0 ? axis + rank : axis);
+    }
+
+    private static long[] leftPad(long[] shape, int rank) {
+        long[] padded = new long[rank];
+        Arrays.fill(padded, 1);
+        System.arraycopy(shape, 0, padded, rank - shape.length, shape.length);
+        return padded;
+    }
+
+    /**
+     * Row-major strides with 0 for axes of size 1, so that an index walk over a larger shape
+     * repeats the broadcast values.
+     */
+    private static int[] broadcastStrides(long[] shape) {
+        int[] strides = new int[shape.length];
+        int stride = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            strides[d] = shape[d] == 1 ? 0 : stride;
+            stride *= shape[d];
+        }
+        return strides;
+    }
+}
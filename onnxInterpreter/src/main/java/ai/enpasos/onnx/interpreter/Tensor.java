@@ -0,0 +1,80 @@
+package ai.enpasos.onnx.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * A dense row-major tensor. Float tensors keep their values in {@link #getData()},
+ * int64 tensors (shapes, indices) in {@link #getLongData()}.
+ */
+public final class Tensor {
+
+    private final long[] shape;
+    private final float[] data;
+    private final long[] longData;
+
+    private Tensor(long[] shape, float[] data, long[] longData) {
+        this.shape = shape;
+        this.data = data;
+        this.longData = longData;
+        int expected = size(shape);
+        int actual = data != null ? data.length : longData.length;
+        if (expected != actual) {
+            throw new IllegalArgumentException("shape " + Arrays.toString(shape) + " does not fit " + actual + " values");
+        }
+    }
+
+    public static Tensor of(long[] shape, float[] data) {
+        return new Tensor(shape, data, null);
+    }
+
+    public static Tensor ofLongs(long[] shape, long[] data) {
+        return new Tensor(shape, null, data);
+    }
+
+    public long[] getShape() {
+        return shape;
+    }
+
+    public float[] getData() {
+        if (data == null) {
+            throw new IllegalStateException("int64 tensor has no float data");
+        }
+        return data;
+    }
+
+    public long[] getLongData() {
+        if (longData == null) {
+            throw new IllegalStateException("float tensor has no int64 data");
+        }
+        return longData;
+    }
+
+    public boolean isLong() {
+        return longData != null;
+    }
+
+    public int rank() {
+        return shape.length;
+    }
+
+    public int size() {
+        return size(shape);
+    }
+
+    public Tensor reshape(long[] newShape) {
+        return new Tensor(newShape, data, longData);
+    }
+
+    static int size(long[] shape) {
+        long size = 1;
+        for (long d : shape) {
+            size *= d;
+        }
+        return Math.toIntExact(size);
+    }
+
+    @Override
+    public String toString() {
+        return "Tensor" + Arrays.toString(shape);
+    }
+}
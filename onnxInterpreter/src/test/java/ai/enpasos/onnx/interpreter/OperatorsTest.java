@@ -0,0 +1,139 @@
+package ai.enpasos.onnx.interpreter;
+
+import ai.enpasos.onnx.AttributeProto;
+import ai.enpasos.onnx.NodeProto;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class OperatorsTest {
+
+    // 1 2 3
+    // 4 5 6
+    // 7 8 9
+    private static final Tensor IMAGE = Tensor.of(new long[]{1, 1, 3, 3}, new float[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+    private static final Tensor ONES_3X3 = Tensor.of(new long[]{1, 1, 3, 3}, filled(9, 1f));
+
+    @Test
+    void reduceWithoutKeepdimsDropsOnlyTheReducedAxes() {
+        Tensor logits = Tensor.of(new long[]{1, 10}, new float[]{0, 1, 2, 9, 4, 5, 6, 7, 8, 3});
+
+        Tensor max = Operators.reduce(node("ReduceMax", ints("axes", 1), i("keepdims", 0)), logits, true);
+
+        assertArrayEquals(new long[]{1}, max.getShape());
+        assertArrayEquals(new float[]{9}, max.getData());
+    }
+
+    @Test
+    void reduceWithKeepdims() {
+        Tensor x = Tensor.of(new long[]{2, 1, 2, 2}, new float[]{3, -1, 4, 1, 5, 9, -2, 6});
+
+        Tensor min = Operators.reduce(node("ReduceMin", ints("axes", 1, 2, 3)), x, false);
+
+        assertArrayEquals(new long[]{2, 1, 1, 1}, min.getShape());
+        assertArrayEquals(new float[]{-1, -2}, min.getData());
+    }
+
+    @Test
+    void reduceNegativeAxisWithoutKeepdims() {
+        Tensor x = Tensor.of(new long[]{2, 1, 3}, new float[]{1, 7, 2, 8, 3, 5});
+
+        Tensor max = Operators.reduce(node("ReduceMax", ints("axes", -1), i("keepdims", 0)), x, true);
+
+        assertArrayEquals(new long[]{2, 1}, max.getShape());
+        assertArrayEquals(new float[]{7, 8}, max.getData());
+    }
+
+    @Test
+    void convWithExplicitPads() {
+        Tensor y = Operators.conv(node("Conv", ints("pads", 1, 1, 1, 1)), IMAGE, ONES_3X3, null);
+
+        assertArrayEquals(new long[]{1, 1, 3, 3}, y.getShape());
+        assertArrayEquals(new float[]{12, 21, 16, 27, 45, 33, 24, 39, 28}, y.getData());
+    }
+
+    @Test
+    void convSameUpperMatchesSymmetricPads() {
+        Tensor y = Operators.conv(node("Conv", s("auto_pad", "SAME_UPPER")), IMAGE, ONES_3X3, null);
+
+        assertArrayEquals(new float[]{12, 21, 16, 27, 45, 33, 24, 39, 28}, y.getData());
+    }
+
+    @Test
+    void convWithoutPaddingAndWithStride() {
+        Tensor valid = Operators.conv(node("Conv", s("auto_pad", "VALID")), IMAGE, ONES_3X3, null);
+        Tensor strided = Operators.conv(node("Conv", ints("pads", 1, 1, 1, 1), ints("strides", 2, 2)), IMAGE, ONES_3X3,
+            Tensor.of(new long[]{1}, new float[]{0.5f}));
+
+        assertArrayEquals(new long[]{1, 1, 1, 1}, valid.getShape());
+        assertArrayEquals(new float[]{45}, valid.getData());
+        assertArrayEquals(new long[]{1, 1, 2, 2}, strided.getShape());
+        assertArrayEquals(new float[]{12.5f, 16.5f, 24.5f, 28.5f}, strided.getData());
+    }
+
+    @Test
+    void zeroWeightsKeepNaNAndInfinity() {
+        Tensor x = Tensor.of(new long[]{1, 1, 3, 3}, new float[]{1, 2, 3, 4, Float.NaN, 6, 7, 8, 9});
+        Tensor zeros = Tensor.of(new long[]{1, 1, 3, 3}, filled(9, 0f));
+
+        Tensor y = Operators.conv(node("Conv", s("auto_pad", "VALID")), x, zeros, null);
+        Tensor z = Operators.matMul(Tensor.of(new long[]{1, 2}, new float[]{0, 0}),
+            Tensor.of(new long[]{2, 1}, new float[]{Float.POSITIVE_INFINITY, 1}));
+
+        assertArrayEquals(new float[]{Float.NaN}, y.getData());
+        assertArrayEquals(new float[]{Float.NaN}, z.getData());
+    }
+
+    @Test
+    void reshapeKeepsZeroDimsAndInfersMinusOne() {
+        Tensor x = Tensor.of(new long[]{2, 3, 4}, filled(24, 0f));
+
+        assertArrayEquals(new long[]{2, 12}, Operators.reshape(x, shape(0, -1)).getShape());
+        assertArrayEquals(new long[]{6, 4}, Operators.reshape(x, shape(-1, 4)).getShape());
+        assertArrayEquals(new long[]{2, 3, 4}, Operators.reshape(x, shape(0, 0, -1)).getShape());
+    }
+
+    private static NodeProto node(String opType, AttributeProto... attributes) {
+        return NodeProto.newBuilder()
+            .setOpType(opType)
+            .addAllAttribute(Arrays.asList(attributes))
+            .build();
+    }
+
+    private static AttributeProto ints(String name, long... values) {
+        AttributeProto.Builder builder = AttributeProto.newBuilder()
+            .setName(name)
+            .setType(AttributeProto.AttributeType.INTS);
+        Arrays.stream(values).forEach(builder::addInts);
+        return builder.build();
+    }
+
+    private static AttributeProto i(String name, long value) {
+        return AttributeProto.newBuilder()
+            .setName(name)
+            .setType(AttributeProto.AttributeType.INT)
+            .setI(value)
+            .build();
+    }
+
+    private static AttributeProto s(String name, String value) {
+        return AttributeProto.newBuilder()
+            .setName(name)
+            .setType(AttributeProto.AttributeType.STRING)
+            .setS(ByteString.copyFromUtf8(value))
+            .build();
+    }
+
+    private static Tensor shape(long... dims) {
+        return Tensor.ofLongs(new long[]{dims.length}, dims);
+    }
+
+    private static float[] filled(int size, float value) {
+        float[] data = new float[size];
+        Arrays.fill(data, value);
+        return data;
+    }
+}
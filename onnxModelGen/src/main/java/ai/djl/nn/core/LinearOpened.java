@@ -35,13 +35,13 @@ public class LinearOpened extends AbstractBlock {
 
     private static final byte VERSION = 4;
 
-    private long units;
-    private long inputFeatures;
+    protected long units;
+    protected long inputFeatures;
 
     private Shape inputShape;
 
-    private Parameter weight;
-    private Parameter bias;
+    protected Parameter weight;
+    protected Parameter bias;
 
     protected LinearOpened(Builder builder) {
         super(VERSION);
@@ -51,6 +51,7 @@ public class Arguments {
     protected long limit;
     protected String modelDir;
     protected Map<String, String> criteria;
+    protected boolean quantizationAware;
 
     protected void initialize() {
         epoch = 2;
@@ -74,6 +75,7 @@ public class Arguments {
         }
         isSymbolic = cmd.hasOption("symbolic-model");
         preTrained = cmd.hasOption("pre-trained");
+        quantizationAware = cmd.hasOption("quantization-aware");
 
         if (cmd.hasOption("output-dir")) {
             outputDir = cmd.getOptionValue("output-dir");
@@ -175,6 +177,12 @@ public class Arguments {
                         .argName("CRITERIA")
                         .desc("The criteria used for the model.")
                         .build());
+        options.addOption(
+                Option.builder("q")
+                        .longOpt("quantization-aware")
+                        .argName("QUANTIZATION-AWARE")
+                        .desc("Train with simulated int8 rounding and export an int8 model")
+                        .build());
         return options;
     }
 
@@ -214,6 +222,10 @@ public class Arguments {
         return criteria;
     }
 
+    public boolean isQuantizationAware() {
+        return quantizationAware;
+    }
+
     private void printHelp(String msg, Options options) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.setLeftPadding(1);
@@ -20,6 +20,7 @@ import ai.djl.engine.Engine;
 import ai.djl.metric.Metrics;
 import ai.djl.ndarray.types.Shape;
 import ai.djl.nn.Block;
+import ai.djl.nn.SequentialBlock;
 import ai.djl.training.DefaultTrainingConfig;
 import ai.djl.training.EasyTrain;
 import ai.djl.training.Trainer;
@@ -32,8 +33,13 @@ import ai.djl.training.listener.TrainingListener;
 import ai.djl.training.loss.Loss;
 import ai.djl.training.util.ProgressBar;
 import ai.djl.translate.TranslateException;
+import ai.enpasos.mnist.blocks.Calibration;
 import ai.enpasos.mnist.blocks.MnistBlock;
+import ai.enpasos.mnist.blocks.OnnxExportOptions;
+import ai.enpasos.mnist.blocks.ext.ChannelPruner;
+import ai.enpasos.mnist.blocks.ext.FakeQuantBlockExt;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.IOException;
 import java.util.List;
@@ -50,11 +56,18 @@ import static ai.enpasos.mnist.blocks.OnnxIOExport.onnxExport;
 @Slf4j
 public final class TrainMnist {
 
+    private static final int CALIBRATION_BATCHES = 8;
+    private static final float PRUNING_RATIO = 0.25f;
+    private static final int FINE_TUNING_EPOCHS = 2;
+
     private TrainMnist() {
     }
 
     public static void main(String[] args) throws IOException, TranslateException {
-        String[] args_ = {"-e", "12", "-b", "256", "-o", "mymodel"};
+        // further options like -q are passed on; a quantization aware run keeps its own checkpoints
+        boolean quantizationAware = ArrayUtils.contains(args, "-q") || ArrayUtils.contains(args, "--quantization-aware");
+        String outputDir = quantizationAware ? "mymodel-qat" : "mymodel";
+        String[] args_ = ArrayUtils.addAll(new String[]{"-e", "12", "-b", "256", "-o", outputDir}, args);
         TrainMnist.runExample(args_);
     }
 
@@ -65,7 +78,9 @@ public final class TrainMnist {
         }
 
         // Construct neural network
-        Block block = MnistBlock.newMnistBlock();
+        Block block = arguments.isQuantizationAware()
+                ? MnistBlock.newMnistBlock(FakeQuantBlockExt::new)
+                : MnistBlock.newMnistBlock();
 
         try (Model model = Model.newInstance("mymodel")) {
             model.setBlock(block);
@@ -77,23 +92,62 @@ public final class TrainMnist {
             // setup training configuration
             DefaultTrainingConfig config = setupTrainingConfig(arguments);
 
+            /*
+             * MNIST is 28x28 grayscale image and pre processed into 28 * 28 NDArray.
+             * 1st axis is batch axis, we can use 1 for initialization.
+             */
+            Shape inputShape = new Shape(1, 1, Mnist.IMAGE_HEIGHT, Mnist.IMAGE_WIDTH);
+
+            TrainingResult result;
             try (Trainer trainer = model.newTrainer(config)) {
                 trainer.setMetrics(new Metrics());
 
-                /*
-                 * MNIST is 28x28 grayscale image and pre processed into 28 * 28 NDArray.
-                 * 1st axis is batch axis, we can use 1 for initialization.
-                 */
-                Shape inputShape = new Shape(1, 1, Mnist.IMAGE_HEIGHT, Mnist.IMAGE_WIDTH);
-
                 trainer.initialize(inputShape);
 
                 EasyTrain.fit(trainer, arguments.getEpoch(), trainingSet, validateSet);
 
-                onnxExport(model, List.of(inputShape), "./models/mnist.onnx");
+                if (arguments.isQuantizationAware()) {
+                    // the fake quantization blocks export themselves as int8, with their trained ranges
+                    onnxExport(model, List.of(inputShape), "./models/mnist-qat.onnx", OnnxExportOptions.builder()
+                            .batchDimParam("N")
+                            .build());
+                    return trainer.getTrainingResult();
+                }
+
+                onnxExport(model, List.of(inputShape), "./models/mnist.onnx", OnnxExportOptions.builder()
+                        .batchDimParam("N")
+                        .build());
+                onnxExport(model, List.of(inputShape), "./models/mnist-uint8.onnx", OnnxExportOptions.builder()
+                        .batchDimParam("N")
+                        .uint8Input(true)
+                        .build());
+                onnxExport(model, List.of(inputShape), "./models/mnist-argmax.onnx", OnnxExportOptions.builder()
+                        .batchDimParam("N")
+                        .head(OnnxExportOptions.Head.ARGMAX)
+                        .build());
+
+                // int8: activation ranges from a few training batches
+                Calibration calibration = Calibration.calibrate(block, model.getNDManager(), trainingSet, CALIBRATION_BATCHES);
+                onnxExport(model, List.of(inputShape), "./models/mnist-int8.onnx", OnnxExportOptions.builder()
+                        .batchDimParam("N")
+                        .calibration(calibration)
+                        .build());
+
+                result = trainer.getTrainingResult();
+            }
 
-                return trainer.getTrainingResult();
+            // last, as it changes the trained model: prune and win back the accuracy in a few epochs.
+            // The training trainer is closed by now, its checkpoint on close holds the full model.
+            ChannelPruner.prune((SequentialBlock) block, PRUNING_RATIO);
+            try (Trainer fineTuner = model.newTrainer(setupFineTuningConfig(arguments))) {
+                fineTuner.setMetrics(new Metrics());
+                EasyTrain.fit(fineTuner, FINE_TUNING_EPOCHS, trainingSet, validateSet);
             }
+            onnxExport(model, List.of(inputShape), "./models/mnist-pruned.onnx", OnnxExportOptions.builder()
+                    .batchDimParam("N")
+                    .build());
+
+            return result;
         }
     }
 
@@ -116,6 +170,16 @@ public final class TrainMnist {
                 .addTrainingListeners(listener);
     }
 
+    /**
+     * Without saving: the pruned parameters would overwrite the checkpoint of the full model.
+     */
+    private static DefaultTrainingConfig setupFineTuningConfig(Arguments arguments) {
+        return new DefaultTrainingConfig(Loss.softmaxCrossEntropyLoss())
+                .addEvaluator(new Accuracy())
+                .optDevices(Engine.getInstance().getDevices(arguments.getMaxGpus()))
+                .addTrainingListeners(TrainingListener.Defaults.logging());
+    }
+
     private static RandomAccessDataset getDataset(Dataset.Usage usage, Arguments arguments)
             throws IOException {
         Mnist mnist =
@@ -0,0 +1,46 @@
+package ai.enpasos.mnist.blocks;
+
+import ai.djl.ndarray.NDArray;
+import lombok.Getter;
+
+/**
+ * Smallest and largest value of a tensor: over all calibration batches, or as moving average of the
+ * batch extremes during quantization-aware training.
+ */
+@Getter
+public class ActivationRange {
+
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    public void record(NDArray array) {
+        record(array.min().getFloat(), array.max().getFloat());
+    }
+
+    public synchronized void record(float min, float max) {
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    /**
+     * Moves the range towards the given one, {@code range = momentum * range + (1 - momentum) * given}.
+     * An empty range takes the given one.
+     */
+    public synchronized void update(float min, float max, float momentum) {
+        if (isEmpty()) {
+            set(min, max);
+            return;
+        }
+        this.min = momentum * this.min + (1 - momentum) * min;
+        this.max = momentum * this.max + (1 - momentum) * max;
+    }
+
+    public synchronized void set(float min, float max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    public synchronized boolean isEmpty() {
+        return min > max;
+    }
+}
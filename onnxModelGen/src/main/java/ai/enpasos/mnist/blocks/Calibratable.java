@@ -0,0 +1,10 @@
+package ai.enpasos.mnist.blocks;
+
+/**
+ * A block that records the ranges of its input and output into the {@link Calibration} it is
+ * given, until it is given null.
+ */
+public interface Calibratable {
+
+    void setCalibration(Calibration calibration);
+}
@@ -0,0 +1,90 @@
+package ai.enpasos.mnist.blocks;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.nn.Block;
+import ai.djl.training.ParameterStore;
+import ai.djl.training.dataset.Batch;
+import ai.djl.training.dataset.Dataset;
+import ai.djl.translate.TranslateException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Input and output ranges of the {@link Calibratable} blocks of a model, collected by running
+ * batches through it. Set as {@link OnnxExportOptions#calibration} they turn on the int8 export of
+ * those blocks, see {@link OnnxQdq}.
+ */
+@Slf4j
+public class Calibration {
+
+    private final Map<Block, ActivationRange> inputs = new IdentityHashMap<>();
+    private final Map<Block, ActivationRange> outputs = new IdentityHashMap<>();
+
+    /**
+     * Runs up to {@code maxBatches} batches of the dataset through the block, in inference mode.
+     */
+    public static Calibration calibrate(Block block, NDManager manager, Dataset dataset, int maxBatches) throws IOException, TranslateException {
+        Calibration calibration = new Calibration();
+        List<Calibratable> calibratables = new ArrayList<>();
+        collect(block, calibratables);
+        calibratables.forEach(c -> c.setCalibration(calibration));
+        try {
+            ParameterStore parameterStore = new ParameterStore(manager, false);
+            int batches = 0;
+            for (Batch batch : dataset.getData(manager)) {
+                try (batch) {
+                    block.forward(parameterStore, batch.getData(), false);
+                }
+                if (++batches >= maxBatches) {
+                    break;
+                }
+            }
+            log.info("calibrated {} blocks on {} batches", calibratables.size(), batches);
+        } finally {
+            calibratables.forEach(c -> c.setCalibration(null));
+        }
+        return calibration;
+    }
+
+    private static void collect(Block block, List<Calibratable> calibratables) {
+        if (block instanceof Calibratable) {
+            calibratables.add((Calibratable) block);
+        }
+        block.getChildren().values().forEach(child -> collect(child, calibratables));
+    }
+
+    public void record(Block block, NDArray input, NDArray output) {
+        range(inputs, block).record(input);
+        range(outputs, block).record(output);
+    }
+
+    private static ActivationRange range(Map<Block, ActivationRange> ranges, Block block) {
+        synchronized (ranges) {
+            return ranges.computeIfAbsent(block, b -> new ActivationRange());
+        }
+    }
+
+    public boolean contains(Block block) {
+        synchronized (inputs) {
+            return inputs.containsKey(block);
+        }
+    }
+
+    public ActivationRange getInput(Block block) {
+        synchronized (inputs) {
+            return inputs.get(block);
+        }
+    }
+
+    public ActivationRange getOutput(Block block) {
+        synchronized (outputs) {
+            return outputs.get(block);
+        }
+    }
+}
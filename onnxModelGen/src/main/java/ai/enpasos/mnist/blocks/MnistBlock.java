@@ -18,57 +18,67 @@
 package ai.enpasos.mnist.blocks;
 
 import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
 import ai.enpasos.mnist.blocks.ext.*;
 
 import java.util.Arrays;
+import java.util.function.UnaryOperator;
 
 
 public class MnistBlock extends SequentialBlockExt implements OnnxIO {
     public static MnistBlock newMnistBlock() {
+        return newMnistBlock(UnaryOperator.identity());
+    }
+
+    /**
+     * @param wrap applied to each Conv2dExt and LinearExt, e.g. {@code FakeQuantBlockExt::new} for
+     *             quantization-aware training
+     */
+    public static MnistBlock newMnistBlock(UnaryOperator<Block> wrap) {
         return (MnistBlock) new MnistBlock()
-                .add(Conv2dExt.builder()
+                .add(wrap.apply(Conv2dExt.builder()
                         .setFilters(8)
                         .setKernelShape(new Shape(5, 5))
                         .optBias(false)
                         .optPadding(new Shape(2, 2))
-                        .build())
+                        .build()))
                 .add(LayerNormExt.builder().build())
                 .add(ActivationExt.reluBlock())
                 .add(PoolExt.maxPool2dBlock(new Shape(2, 2), new Shape(2, 2)))   // 28 -> 14
                 .add(
                     new ParallelBlockWithConcatChannelJoinExt(
                         Arrays.asList(
-                            Conv2dExt.builder()
+                            wrap.apply(Conv2dExt.builder()
                                 .setFilters(16)
                                 .setKernelShape(new Shape(5, 5))
                                 .optBias(false)
                                 .optPadding(new Shape(2, 2))
-                                .build(),
-                            Conv2dExt.builder()
+                                .build()),
+                            wrap.apply(Conv2dExt.builder()
                                 .setFilters(16)
                                 .setKernelShape(new Shape(3, 3))
                                 .optBias(false)
                                 .optPadding(new Shape(1, 1))
-                                .build()
+                                .build())
                         ))
                 )
                 .add(LayerNormExt.builder().build())
                 .add(ActivationExt.reluBlock())
                 .add(PoolExt.maxPool2dBlock(new Shape(2, 2), new Shape(2, 2)))  // 14 -> 7
-                .add(Conv2dExt.builder()
+                .add(wrap.apply(Conv2dExt.builder()
                         .setFilters(32)
                         .setKernelShape(new Shape(3, 3))
                         .optBias(false)
                         .optPadding(new Shape(1, 1))
-                        .build())
+                        .build()))
                 .add(LayerNormExt.builder().build())
                 .add(ActivationExt.reluBlock())
                 .add(new RescaleBlockExt())
                 .add(BlocksExt.batchFlattenBlock())
-                .add(LinearExt.builder()
+                .add(wrap.apply(LinearExt.builder()
                         .setUnits(10)
                         .optBias(true)
-                        .build());
+                        .build()));
     }
 
     private MnistBlock() {}
@@ -1,17 +1,73 @@
 package ai.enpasos.mnist.blocks;
 
+import ai.enpasos.onnx.TensorProto;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 @Data
 @Builder
 public class OnnxCounter {
     int counter;
 
+    @Builder.Default
+    OnnxExportOptions options = OnnxExportOptions.builder().build();
+
+    /**
+     * With {@link OnnxExportOptions#directWrite}: by name, how to build the initializers whose protos in
+     * the blocks are headers only, i.e. name, data type and dims without data.
+     */
+    @Builder.Default
+    Map<String, Supplier<TensorProto>> deferred = new HashMap<>();
+
 
     public int count() {
         return counter++;
     }
+
+    /**
+     * The initializer built by the supplier. With directWrite only its header is returned and the
+     * supplier is kept to build it when it is written.
+     */
+    public TensorProto initializer(String name, int dataType, List<Long> dims, Supplier<TensorProto> complete) {
+        if (!options.isDirectWrite()) {
+            return complete.get();
+        }
+        deferred.put(name, complete);
+        return TensorProto.newBuilder()
+            .setName(name)
+            .setDataType(dataType)
+            .addAllDims(dims)
+            .build();
+    }
+
+    public boolean isDeferred(TensorProto initializer) {
+        return deferred.containsKey(initializer.getName());
+    }
+
+    /**
+     * The initializer with its data, built if it is deferred.
+     */
+    public TensorProto resolve(TensorProto initializer) {
+        Supplier<TensorProto> complete = deferred.get(initializer.getName());
+        return complete == null ? initializer : complete.get();
+    }
+
+    /**
+     * Applies the rewrite to the initializer. For a deferred one it is applied to the header now and
+     * to the complete initializer when that is built.
+     */
+    public TensorProto rewrite(TensorProto initializer, UnaryOperator<TensorProto> rewrite) {
+        Supplier<TensorProto> complete = deferred.get(initializer.getName());
+        TensorProto result = rewrite.apply(initializer);
+        if (complete != null) {
+            deferred.put(result.getName(), () -> rewrite.apply(complete.get()));
+        }
+        return result;
+    }
 }
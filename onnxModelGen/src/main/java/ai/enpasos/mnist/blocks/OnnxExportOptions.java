@@ -0,0 +1,149 @@
+package ai.enpasos.mnist.blocks;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Switches that control how {@link OnnxIOExport} encodes the model.
+ * The defaults are what {@link OnnxIOExport#onnxExport(ai.djl.Model, java.util.List, String)} uses.
+ */
+@Data
+@Builder
+public class OnnxExportOptions {
+
+    /**
+     * Version of the ai.onnx operator set the graph is written for, 15 to 18 (the last one of IR
+     * version 8). From 17 on LayerNormExt emits the native LayerNormalization op (needs ONNX Runtime
+     * 1.14 or newer), from 18 on the reductions take their axes as an input.
+     */
+    @Builder.Default
+    int opsetVersion = 15;
+
+    /**
+     * Encode float initializers as packed little-endian {@code raw_data} instead of
+     * repeated {@code float_data}.
+     */
+    @Builder.Default
+    boolean rawData = true;
+
+    /**
+     * Write the graph message by message onto a buffered file channel instead of serializing
+     * the whole ModelProto into one byte array first. The weight initializers are deferred: the
+     * blocks only create their headers and each one is encoded from the model's NDArray right before
+     * it is written, so beyond the model itself memory grows with the largest single tensor.
+     */
+    @Builder.Default
+    boolean directWrite = false;
+
+    /**
+     * Move raw_data initializers of at least {@link #externalDataThreshold} bytes into a side file
+     * next to the model, referenced via data_location=EXTERNAL. Requires {@link #rawData}.
+     */
+    @Builder.Default
+    boolean externalData = false;
+
+    @Builder.Default
+    long externalDataThreshold = 1024;
+
+    /**
+     * Name of a symbolic batch dimension (dim_param) for axis 0 of all graph tensors.
+     * If null the batch size of the export input shapes is baked into the graph.
+     */
+    @Builder.Default
+    String batchDimParam = null;
+
+    /**
+     * Export LinearExt as a single Gemm node (transB=1) on the untransposed weight
+     * instead of Reshape, MatMul and Add.
+     */
+    @Builder.Default
+    boolean gemm = false;
+
+    /**
+     * Precompute nodes whose inputs are all initializers, see {@link OnnxOptimizer#foldConstants}.
+     */
+    @Builder.Default
+    boolean foldConstants = true;
+
+    /**
+     * Apply equivalent reorderings that shrink elementwise work, see {@link OnnxOptimizer#reorderActivations}.
+     */
+    @Builder.Default
+    boolean reorderActivations = true;
+
+    /**
+     * Export a ParallelBlockWithConcatChannelJoinExt whose branches are all compatible Conv2dExt
+     * blocks as one wide Conv node instead of one Conv per branch plus a Concat.
+     */
+    @Builder.Default
+    boolean mergeParallelConvs = false;
+
+    /**
+     * Let the graph take raw uint8 pixels in NHWC layout: Cast to float, Div by 255 and a Transpose
+     * to NCHW are prepended, so callers skip the conversion to normalized float tensors.
+     */
+    @Builder.Default
+    boolean uint8Input = false;
+
+    /**
+     * Postprocessing appended after the last block, see {@link Head}.
+     */
+    @Builder.Default
+    Head head = Head.LOGITS;
+
+    /**
+     * Number of classes the TOP_K head returns.
+     */
+    @Builder.Default
+    int topK = 5;
+
+    /**
+     * Element type of the exported weights and activations, see {@link Precision}. Int8 graphs, i.e.
+     * calibrated or quantization aware models, need {@link Precision#FLOAT32}.
+     */
+    @Builder.Default
+    Precision precision = Precision.FLOAT32;
+
+    /**
+     * If set, the calibrated Conv2dExt and LinearExt blocks are exported with int8 weights between
+     * QuantizeLinear/DequantizeLinear pairs, see {@link OnnxQdq}. Needs {@link Precision#FLOAT32}.
+     */
+    @Builder.Default
+    Calibration calibration = null;
+
+    public enum Head {
+        /**
+         * The output of the model as it is, shape [N, classes].
+         */
+        LOGITS,
+        /**
+         * Class probabilities, shape [N, classes].
+         */
+        SOFTMAX,
+        /**
+         * Two outputs: the index of the best class as int64 [N] and its probability as float [N].
+         */
+        ARGMAX,
+        /**
+         * Two outputs: the indices of the {@link #topK} best classes as int64 [N, k] and their
+         * probabilities as float [N, k], best first.
+         */
+        TOP_K
+    }
+
+    public enum Precision {
+        FLOAT32,
+        /**
+         * Weights and activations in float16. Graph inputs and outputs stay float32, Cast nodes convert
+         * at the boundaries. ONNX Runtime has float16 CPU kernels for few operators only and casts
+         * around the others, so this mode mainly pays off on GPUs and in onnxruntime-web.
+         */
+        FLOAT16,
+        /**
+         * Weights stored in float16, each cast to float32 by a Cast node that ONNX Runtime folds when it
+         * loads the model. Halves the file, computes in float32 like before.
+         */
+        FLOAT16_WEIGHTS
+    }
+
+}
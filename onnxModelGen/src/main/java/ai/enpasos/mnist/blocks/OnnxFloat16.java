@@ -0,0 +1,234 @@
+package ai.enpasos.mnist.blocks;
+
+import ai.djl.ndarray.types.Shape;
+import ai.enpasos.onnx.AttributeProto;
+import ai.enpasos.onnx.NodeProto;
+import ai.enpasos.onnx.TensorProto;
+import ai.enpasos.onnx.TypeProto;
+import ai.enpasos.onnx.ValueInfoProto;
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites the float32 tensors of an assembled {@link OnnxBlock} to float16, see
+ * {@link OnnxExportOptions.Precision}. Runs after the {@link OnnxOptimizer} passes, which evaluate
+ * float32 initializers.
+ */
+public class OnnxFloat16 {
+
+    private static final String SUFFIX = "_float16";
+
+    private OnnxFloat16() {
+    }
+
+    public static void convert(OnnxBlock onnxBlock, OnnxExportOptions.Precision precision, OnnxCounter counter) {
+        switch (precision) {
+            case FLOAT32:
+                return;
+            case FLOAT16:
+                convertAll(onnxBlock, counter);
+                return;
+            case FLOAT16_WEIGHTS:
+                convertWeights(onnxBlock, counter);
+                return;
+            default:
+                throw new IllegalArgumentException("unknown precision " + precision);
+        }
+    }
+
+    /**
+     * Each float initializer P becomes a float16 initializer P_float16 and a Cast node from it to P.
+     */
+    private static void convertWeights(OnnxBlock onnxBlock, OnnxCounter counter) {
+        List<NodeProto> casts = new ArrayList<>();
+        List<TensorProto> parameters = new ArrayList<>();
+        for (TensorProto parameter : onnxBlock.getParameters()) {
+            if (parameter.getDataType() != TensorProto.DataType.FLOAT_VALUE) {
+                parameters.add(parameter);
+                continue;
+            }
+            String name = parameter.getName();
+            parameters.add(counter.rewrite(parameter, p -> toFloat16(p).toBuilder().setName(name + SUFFIX).build()));
+            casts.add(cast(name + SUFFIX, name, TensorProto.DataType.FLOAT_VALUE));
+            onnxBlock.getValueInfos().add(valueInfo(name, TensorProto.DataType.FLOAT_VALUE, parameter.getDimsList()));
+        }
+        casts.addAll(onnxBlock.getNodes());
+        onnxBlock.setNodes(casts);
+        onnxBlock.setParameters(parameters);
+    }
+
+    /**
+     * All float tensors become float16 except the graph inputs and outputs, which get a Cast to or
+     * from a float16 twin named with the suffix.
+     */
+    private static void convertAll(OnnxBlock onnxBlock, OnnxCounter counter) {
+        Set<String> inputs = floatNames(onnxBlock, onnxBlock.getInputNames());
+        Set<String> outputs = floatNames(onnxBlock, onnxBlock.getOutputNames());
+        Function<String, String> rename = name -> inputs.contains(name) || outputs.contains(name) ? name + SUFFIX : name;
+
+        List<NodeProto> nodes = new ArrayList<>();
+        for (String input : inputs) {
+            nodes.add(cast(input, input + SUFFIX, TensorProto.DataType.FLOAT16_VALUE));
+        }
+        for (NodeProto node : onnxBlock.getNodes()) {
+            NodeProto.Builder builder = node.toBuilder()
+                .clearInput()
+                .addAllInput(node.getInputList().stream().map(rename).collect(Collectors.toList()))
+                .clearOutput()
+                .addAllOutput(node.getOutputList().stream().map(rename).collect(Collectors.toList()));
+            if (node.getOpType().equals("Cast")) {
+                for (AttributeProto.Builder attribute : builder.getAttributeBuilderList()) {
+                    if (attribute.getName().equals("to") && attribute.getI() == TensorProto.DataType.FLOAT_VALUE) {
+                        attribute.setI(TensorProto.DataType.FLOAT16_VALUE);
+                    }
+                }
+            }
+            nodes.add(builder.build());
+        }
+        for (String output : outputs) {
+            nodes.add(cast(output + SUFFIX, output, TensorProto.DataType.FLOAT_VALUE));
+        }
+
+        List<ValueInfoProto> valueInfos = new ArrayList<>();
+        for (ValueInfoProto valueInfo : onnxBlock.getValueInfos()) {
+            if (elemType(valueInfo) != TensorProto.DataType.FLOAT_VALUE) {
+                valueInfos.add(valueInfo);
+                continue;
+            }
+            if (inputs.contains(valueInfo.getName()) || outputs.contains(valueInfo.getName())) {
+                valueInfos.add(valueInfo);
+                valueInfos.add(withElemType(valueInfo, TensorProto.DataType.FLOAT16_VALUE).toBuilder()
+                    .setName(valueInfo.getName() + SUFFIX)
+                    .build());
+            } else {
+                valueInfos.add(withElemType(valueInfo, TensorProto.DataType.FLOAT16_VALUE));
+            }
+        }
+
+        onnxBlock.setNodes(nodes);
+        onnxBlock.setValueInfos(valueInfos);
+        onnxBlock.setParameters(onnxBlock.getParameters().stream()
+            .map(p -> p.getDataType() == TensorProto.DataType.FLOAT_VALUE ? counter.rewrite(p, OnnxFloat16::toFloat16) : p)
+            .collect(Collectors.toList()));
+    }
+
+    private static Set<String> floatNames(OnnxBlock onnxBlock, List<String> names) {
+        return onnxBlock.getValueInfos().stream()
+            .filter(vi -> names.contains(vi.getName()))
+            .filter(vi -> elemType(vi) == TensorProto.DataType.FLOAT_VALUE)
+            .map(ValueInfoProto::getName)
+            .collect(Collectors.toSet());
+    }
+
+    private static int elemType(ValueInfoProto valueInfo) {
+        return valueInfo.getType().getTensorType().getElemType();
+    }
+
+    private static ValueInfoProto withElemType(ValueInfoProto valueInfo, int elemType) {
+        return valueInfo.toBuilder()
+            .setType(TypeProto.newBuilder()
+                .setTensorType(valueInfo.getType().getTensorType().toBuilder()
+                    .setElemType(elemType)
+                    .build())
+                .build())
+            .build();
+    }
+
+    private static ValueInfoProto valueInfo(String name, int elemType, List<Long> dims) {
+        long[] shape = dims.stream().mapToLong(Long::longValue).toArray();
+        return OnnxHelper.createValueInfoProto(OnnxTensor.builder()
+            .name(name)
+            .shape(new Shape(shape))
+            .build(), elemType);
+    }
+
+    private static NodeProto cast(String input, String output, int to) {
+        return NodeProto.newBuilder()
+            .setName(output + "_cast")
+            .setOpType("Cast")
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INT)
+                .setName("to")
+                .setI(to)
+                .build())
+            .addInput(input)
+            .addOutput(output)
+            .build();
+    }
+
+    /**
+     * The float32 initializer as float16 raw_data, from either raw_data or float_data. The header of
+     * a deferred initializer becomes a float16 header.
+     */
+    static TensorProto toFloat16(TensorProto tensor) {
+        FloatBuffer values;
+        if (!tensor.getRawData().isEmpty()) {
+            values = tensor.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        } else {
+            float[] data = new float[tensor.getFloatDataCount()];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = tensor.getFloatData(i);
+            }
+            values = FloatBuffer.wrap(data);
+        }
+        ByteBuffer halves = ByteBuffer.allocate(2 * values.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        while (values.hasRemaining()) {
+            halves.putShort(toHalf(values.get()));
+        }
+        halves.flip();
+        return tensor.toBuilder()
+            .setDataType(TensorProto.DataType.FLOAT16_VALUE)
+            .clearFloatData()
+            .setRawData(ByteString.copyFrom(halves))
+            .build();
+    }
+
+    /**
+     * IEEE 754 binary16 bits of the value, rounded to nearest even. Values beyond the float16 range
+     * become infinity, values below half the smallest subnormal become (signed) zero.
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent == 0xff) {
+            // infinity keeps a zero mantissa, NaN stays a (quiet) NaN
+            return (short) (sign | 0x7c00 | (mantissa == 0 ? 0 : 0x200 | mantissa >>> 13));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0) {
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            // subnormal: shift the mantissa with its implicit bit into the 10 bit field
+            int significand = mantissa | 0x800000;
+            int shift = 14 - halfExponent;
+            return (short) (sign | roundShift(significand, shift));
+        }
+        // a carry out of the mantissa correctly increments the exponent, up to infinity
+        return (short) (sign | (halfExponent << 10) + roundShift(mantissa, 13));
+    }
+
+    private static int roundShift(int value, int shift) {
+        int result = value >>> shift;
+        int rest = value & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (rest > halfway || rest == halfway && (result & 1) != 0) {
+            result++;
+        }
+        return result;
+    }
+}
@@ -1,12 +1,17 @@
 package ai.enpasos.mnist.blocks;
 
 import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.ndarray.types.Shape;
+import ai.enpasos.onnx.TensorProto;
 import ai.enpasos.onnx.TensorShapeProto;
 import ai.enpasos.onnx.TypeProto;
 import ai.enpasos.onnx.ValueInfoProto;
+import com.google.protobuf.ByteString;
 import org.apache.commons.lang3.ArrayUtils;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -14,13 +19,42 @@ import java.util.stream.IntStream;
 
 public class OnnxHelper {
     public static TensorShapeProto convert(Shape shapes) {
+        return convert(shapes, null);
+    }
+
+    /**
+     * Converts the shape, replacing the batch axis 0 by the symbolic dimension batchDimParam if given.
+     */
+    public static TensorShapeProto convert(Shape shapes, String batchDimParam) {
         TensorShapeProto.Builder builder = TensorShapeProto.newBuilder();
-        Arrays.stream(shapes.getShape()).forEach(shape -> {
-            builder.addDim(TensorShapeProto.Dimension.newBuilder().setDimValue(shape).build());
-        });
+        long[] dims = shapes.getShape();
+        for (int i = 0; i < dims.length; i++) {
+            if (i == 0 && batchDimParam != null) {
+                builder.addDim(TensorShapeProto.Dimension.newBuilder().setDimParam(batchDimParam).build());
+            } else {
+                builder.addDim(TensorShapeProto.Dimension.newBuilder().setDimValue(dims[i]).build());
+            }
+        }
         return builder.build();
     }
 
+    public static ValueInfoProto withBatchDimParam(ValueInfoProto valueInfo, String batchDimParam) {
+        TypeProto.Tensor tensorType = valueInfo.getType().getTensorType();
+        if (tensorType.getShape().getDimCount() == 0) {
+            return valueInfo;
+        }
+        Shape shape = new Shape(tensorType.getShape().getDimList().stream()
+                .mapToLong(TensorShapeProto.Dimension::getDimValue)
+                .toArray());
+        return valueInfo.toBuilder()
+                .setType(TypeProto.newBuilder()
+                        .setTensorType(tensorType.toBuilder()
+                                .setShape(convert(shape, batchDimParam))
+                                .build())
+                        .build())
+                .build();
+    }
+
     public static List<Float> convert(NDArray ndArray) {
         float[] raw = ndArray.flatten().toFloatArray();
         return IntStream.range(0, raw.length)
@@ -28,6 +62,45 @@ public class OnnxHelper {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Copies the float32 content of the array into a little-endian byte string as expected by
+     * {@code TensorProto.raw_data}. On little-endian platforms this is a single bulk copy.
+     */
+    public static ByteString convertToRawData(NDArray ndArray) {
+        if (ndArray.getDataType() != DataType.FLOAT32) {
+            throw new IllegalArgumentException("raw data encoding expects float32, got " + ndArray.getDataType());
+        }
+        ByteBuffer buffer = ndArray.flatten().toByteBuffer();
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            return ByteString.copyFrom(buffer);
+        }
+        ByteBuffer littleEndian = ByteBuffer.allocate(buffer.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        littleEndian.asFloatBuffer().put(buffer.asFloatBuffer());
+        return ByteString.copyFrom(littleEndian);
+    }
+
+    /**
+     * The float initializer of the array, deferred with directWrite, see {@link OnnxCounter#initializer}.
+     * The array has to stay open until the model is written.
+     */
+    public static TensorProto createTensorProto(OnnxCounter counter, String name, List<Long> dims, NDArray ndArray) {
+        return counter.initializer(name, TensorProto.DataType.FLOAT_VALUE, dims,
+                () -> createTensorProto(counter.getOptions(), name, dims, ndArray));
+    }
+
+    public static TensorProto createTensorProto(OnnxExportOptions options, String name, List<Long> dims, NDArray ndArray) {
+        TensorProto.Builder builder = TensorProto.newBuilder()
+                .setName(name)
+                .setDataType(TensorProto.DataType.FLOAT_VALUE)
+                .addAllDims(dims);
+        if (options.isRawData()) {
+            builder.setRawData(convertToRawData(ndArray));
+        } else {
+            builder.addAllFloatData(convert(ndArray));
+        }
+        return builder.build();
+    }
+
     public static List<Long> convert(long[] array) {
         return Arrays.asList(ArrayUtils.toObject(array));
     }
@@ -40,10 +113,14 @@ public class OnnxHelper {
 
     }
     public static ValueInfoProto createValueInfoProto(OnnxTensor output) {
+        return createValueInfoProto(output, TensorProto.DataType.FLOAT_VALUE);
+    }
+
+    public static ValueInfoProto createValueInfoProto(OnnxTensor output, int elemType) {
         ValueInfoProto valueInfoProto = ValueInfoProto.newBuilder()
                 .setType(TypeProto.newBuilder()
                         .setTensorType(TypeProto.Tensor.newBuilder()
-                                .setElemType(1) // float32
+                                .setElemType(elemType)
                                 .setShape(convert(output.getShape()))
 
                                 .build())
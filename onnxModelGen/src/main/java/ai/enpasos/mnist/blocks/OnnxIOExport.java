@@ -2,43 +2,332 @@ package ai.enpasos.mnist.blocks;
 
 import ai.djl.Model;
 import ai.djl.ndarray.types.Shape;
+import ai.enpasos.onnx.AttributeProto;
 import ai.enpasos.onnx.GraphProto;
 import ai.enpasos.onnx.ModelProto;
+import ai.enpasos.onnx.NodeProto;
 import ai.enpasos.onnx.OperatorSetIdProto;
+import ai.enpasos.onnx.StringStringEntryProto;
+import ai.enpasos.onnx.TensorProto;
+import ai.enpasos.onnx.ValueInfoProto;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
 
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static ai.enpasos.mnist.blocks.OnnxBlock.combine;
+import static ai.enpasos.mnist.blocks.OnnxHelper.createValueInfoProto;
+import static ai.enpasos.mnist.blocks.OnnxHelper.withBatchDimParam;
 
 public class OnnxIOExport {
 
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    private static final int EXTERNAL_DATA_ALIGNMENT = 4096;
+    private static final int MIN_OPSET_VERSION = 15;
+    // the last opset of IR version 8
+    private static final int MAX_OPSET_VERSION = 18;
+
 
     public static void onnxExport(Model model, List<Shape> inputShapes, String fileName) {
-        ModelProto modelProto = getModelProto(model, inputShapes);
-        save(modelProto, fileName);
+        onnxExport(model, inputShapes, fileName, OnnxExportOptions.builder().build());
+    }
+
+    public static void onnxExport(Model model, List<Shape> inputShapes, String fileName, OnnxExportOptions options) {
+        if (options.getOpsetVersion() < MIN_OPSET_VERSION || options.getOpsetVersion() > MAX_OPSET_VERSION) {
+            throw new IllegalArgumentException("opset version has to be in [" + MIN_OPSET_VERSION + ", "
+                + MAX_OPSET_VERSION + "], got " + options.getOpsetVersion());
+        }
+        if (options.isExternalData() && !options.isRawData()) {
+            throw new IllegalArgumentException("external data needs rawData, float_data initializers stay in the model");
+        }
+        OnnxCounter counter = OnnxCounter.builder().counter(0).options(options).build();
+        OnnxBlock onnxBlock = getOnnxBlock(model, inputShapes, counter);
+        // calibrated blocks as well as the fake quantization blocks of a quantization aware model
+        if (options.getPrecision() != OnnxExportOptions.Precision.FLOAT32 && onnxBlock.getNodes().stream()
+                .anyMatch(n -> n.getOpType().equals("QuantizeLinear") || n.getOpType().equals("DequantizeLinear"))) {
+            throw new IllegalArgumentException("int8 export needs float32 precision for its scales");
+        }
+        if (options.getBatchDimParam() != null) {
+            Set<String> batchTensors = batchTensors(onnxBlock);
+            onnxBlock.setValueInfos(onnxBlock.getValueInfos().stream()
+                .map(vi -> batchTensors.contains(vi.getName()) ? withBatchDimParam(vi, options.getBatchDimParam()) : vi)
+                .collect(Collectors.toList()));
+        }
+        if (options.isFoldConstants()) {
+            OnnxOptimizer.foldConstants(onnxBlock, counter);
+        }
+        if (options.isReorderActivations()) {
+            OnnxOptimizer.reorderActivations(onnxBlock);
+        }
+        if (options.getPrecision() != OnnxExportOptions.Precision.FLOAT32) {
+            OnnxFloat16.convert(onnxBlock, options.getPrecision(), counter);
+        }
+        ModelProto.Builder modelBuilder = getModelBuilder(options);
+        GraphProto.Builder graphBuilder = getGraphBuilder(onnxBlock);
+
+        if (options.isExternalData()) {
+            moveToExternalData(graphBuilder, counter, fileName, options.getExternalDataThreshold());
+        }
+
+        if (options.isDirectWrite()) {
+            saveDirect(modelBuilder.build(), graphBuilder, counter, fileName);
+        } else {
+            modelBuilder.setGraph(graphBuilder);
+            save(modelBuilder.build(), fileName);
+        }
     }
 
 
-    private static ModelProto getModelProto(Model model, List<Shape> inputShapes) {
+    /**
+     * The inputs and all tensors computed from them, i.e. the ones carrying the batch axis. Tensors
+     * computed from initializers only, like reshaped or dequantized weights, are not among them.
+     */
+    static Set<String> batchTensors(OnnxBlock onnxBlock) {
+        Set<String> names = new HashSet<>(onnxBlock.getInputNames());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (NodeProto node : onnxBlock.getNodes()) {
+                if (node.getInputList().stream().anyMatch(names::contains)) {
+                    changed |= names.addAll(node.getOutputList());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static OnnxBlock getOnnxBlock(Model model, List<Shape> inputShapes, OnnxCounter counter) {
 
         OnnxIO onnxIO = (OnnxIO) model.getBlock();
+        OnnxExportOptions options = counter.getOptions();
+
+        OnnxBlock onnxBlock;
+        if (options.isUint8Input()) {
+            OnnxBlock uint8Block = getUint8InputBlock(counter, inputShapes.get(0));
+            onnxBlock = chain(uint8Block, onnxIO.getOnnxBlock(counter, uint8Block.getOutput()));
+        } else {
+            onnxBlock = onnxIO.getOnnxBlock(counter, combine(List.of("Input"), inputShapes));
+        }
+        if (options.getHead() != OnnxExportOptions.Head.LOGITS) {
+            onnxBlock = chain(onnxBlock, getHeadBlock(counter, onnxBlock.getOutput().get(0), options));
+        }
+        return onnxBlock;
+    }
 
+    /**
+     * The second block reads the output of the first.
+     */
+    private static OnnxBlock chain(OnnxBlock first, OnnxBlock second) {
+        OnnxBlock onnxBlock = OnnxBlock.builder()
+            .input(first.getInput())
+            .output(second.getOutput())
+            .build();
+        onnxBlock.addChild(first);
+        onnxBlock.addChild(second);
+        return onnxBlock;
+    }
 
-        OnnxBlock onnxBlock = onnxIO.getOnnxBlock(
-            OnnxCounter.builder().counter(0).build(),
-            combine(List.of("Input"), inputShapes)
-        );
+    /**
+     * Input "Input" of uint8 NHWC pixels, output the float NCHW tensor in [0, 1] the model expects.
+     */
+    private static OnnxBlock getUint8InputBlock(OnnxCounter counter, Shape nchw) {
+        Shape nhwc = new Shape(nchw.get(0), nchw.get(2), nchw.get(3), nchw.get(1));
+        List<OnnxTensor> input = combine(List.of("Input"), List.of(nhwc));
+        List<OnnxTensor> cast = combine(List.of("T" + counter.count()), List.of(nhwc));
+        List<OnnxTensor> scaled = combine(List.of("T" + counter.count()), List.of(nhwc));
+        List<OnnxTensor> output = combine(List.of("T" + counter.count()), List.of(nchw));
+        String scaleName = "P" + counter.count();
 
-        ModelProto.Builder modelBuilder = ModelProto.newBuilder();
+        List<ValueInfoProto> valueInfos = new ArrayList<>();
+        valueInfos.add(createValueInfoProto(input.get(0), TensorProto.DataType.UINT8_VALUE));
+        valueInfos.addAll(createValueInfoProto(cast));
+        valueInfos.addAll(createValueInfoProto(scaled));
+        valueInfos.addAll(createValueInfoProto(output));
+
+        return OnnxBlock.builder()
+            .input(input)
+            .output(output)
+            .valueInfos(valueInfos)
+            .nodes(List.of(
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("Cast")
+                    .addAttribute(intAttribute("to", TensorProto.DataType.FLOAT_VALUE))
+                    .addInput(input.get(0).getName())
+                    .addOutput(cast.get(0).getName())
+                    .build(),
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("Div")
+                    .addInput(cast.get(0).getName())
+                    .addInput(scaleName)
+                    .addOutput(scaled.get(0).getName())
+                    .build(),
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("Transpose")
+                    .addAttribute(AttributeProto.newBuilder()
+                        .setType(AttributeProto.AttributeType.INTS)
+                        .setName("perm")
+                        .addAllInts(List.of(0L, 3L, 1L, 2L))
+                        .build())
+                    .addInput(scaled.get(0).getName())
+                    .addOutput(output.get(0).getName())
+                    .build()
+            ))
+            .parameters(List.of(
+                TensorProto.newBuilder()
+                    .setName(scaleName)
+                    .setDataType(TensorProto.DataType.FLOAT_VALUE)
+                    .addFloatData(255f)
+                    .build()
+            ))
+            .build();
+    }
+
+    /**
+     * Softmax over the class axis of the [N, classes] logits, followed by ArgMax and ReduceMax or by
+     * TopK. For ARGMAX and TOP_K the indices are the first graph output and the probabilities the second.
+     */
+    private static OnnxBlock getHeadBlock(OnnxCounter counter, OnnxTensor logits, OnnxExportOptions options) {
+        Shape shape = logits.getShape();
+        if (shape.dimension() != 2) {
+            throw new IllegalArgumentException("a head needs [N, classes] logits, got " + shape);
+        }
+        List<OnnxTensor> probabilities = combine(List.of("T" + counter.count()), List.of(shape));
+        List<ValueInfoProto> valueInfos = new ArrayList<>(createValueInfoProto(probabilities));
+        List<NodeProto> nodes = new ArrayList<>();
+        List<TensorProto> parameters = new ArrayList<>();
+
+        nodes.add(NodeProto.newBuilder()
+            .setName("N" + counter.count())
+            .setOpType("Softmax")
+            .addAttribute(intAttribute("axis", 1))
+            .addInput(logits.getName())
+            .addOutput(probabilities.get(0).getName())
+            .build());
 
+        List<OnnxTensor> output;
+        switch (options.getHead()) {
+            case SOFTMAX:
+                output = probabilities;
+                break;
+            case ARGMAX: {
+                Shape batch = new Shape(shape.get(0));
+                OnnxTensor index = combine(List.of("T" + counter.count()), List.of(batch)).get(0);
+                OnnxTensor score = combine(List.of("T" + counter.count()), List.of(batch)).get(0);
+                output = List.of(index, score);
+                valueInfos.add(createValueInfoProto(index, TensorProto.DataType.INT64_VALUE));
+                valueInfos.add(createValueInfoProto(score));
+                nodes.add(NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("ArgMax")
+                    .addAttribute(intAttribute("axis", 1))
+                    .addAttribute(intAttribute("keepdims", 0))
+                    .addInput(probabilities.get(0).getName())
+                    .addOutput(index.getName())
+                    .build());
+                NodeProto.Builder reduceMax = NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("ReduceMax")
+                    .addAttribute(intAttribute("keepdims", 0))
+                    .addInput(probabilities.get(0).getName())
+                    .addOutput(score.getName());
+                if (options.getOpsetVersion() >= 18) {
+                    // axes moved from an attribute to an input in opset 18
+                    String axesName = "P" + counter.count();
+                    parameters.add(int64Tensor(axesName, 1));
+                    reduceMax.addInput(axesName);
+                } else {
+                    reduceMax.addAttribute(AttributeProto.newBuilder()
+                        .setType(AttributeProto.AttributeType.INTS)
+                        .setName("axes")
+                        .addInts(1)
+                        .build());
+                }
+                nodes.add(reduceMax.build());
+                break;
+            }
+            case TOP_K: {
+                int k = (int) Math.min(options.getTopK(), shape.get(1));
+                Shape topK = new Shape(shape.get(0), k);
+                OnnxTensor indices = combine(List.of("T" + counter.count()), List.of(topK)).get(0);
+                OnnxTensor scores = combine(List.of("T" + counter.count()), List.of(topK)).get(0);
+                String kName = "P" + counter.count();
+                output = List.of(indices, scores);
+                valueInfos.add(createValueInfoProto(indices, TensorProto.DataType.INT64_VALUE));
+                valueInfos.add(createValueInfoProto(scores));
+                parameters.add(int64Tensor(kName, k));
+                nodes.add(NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("TopK")
+                    .addAttribute(intAttribute("axis", 1))
+                    .addAttribute(intAttribute("largest", 1))
+                    .addAttribute(intAttribute("sorted", 1))
+                    .addInput(probabilities.get(0).getName())
+                    .addInput(kName)
+                    .addOutput(scores.getName())
+                    .addOutput(indices.getName())
+                    .build());
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("no head block for " + options.getHead());
+        }
+
+        return OnnxBlock.builder()
+            .input(List.of(logits))
+            .output(output)
+            .valueInfos(valueInfos)
+            .nodes(nodes)
+            .parameters(parameters)
+            .build();
+    }
+
+    private static AttributeProto intAttribute(String name, long value) {
+        return AttributeProto.newBuilder()
+            .setType(AttributeProto.AttributeType.INT)
+            .setName(name)
+            .setI(value)
+            .build();
+    }
+
+    private static TensorProto int64Tensor(String name, long value) {
+        return TensorProto.newBuilder()
+            .setName(name)
+            .setDataType(TensorProto.DataType.INT64_VALUE)
+            .addDims(1)
+            .addInt64Data(value)
+            .build();
+    }
+
+    private static ModelProto.Builder getModelBuilder(OnnxExportOptions options) {
+        ModelProto.Builder modelBuilder = ModelProto.newBuilder();
 
         modelBuilder.setDomain("ai.enpasos");
         modelBuilder.setProducerName("enpasos");
         modelBuilder.setIrVersion(8);
-        modelBuilder.addOpsetImport(OperatorSetIdProto.newBuilder().setDomain("ai.onnx").setVersion(15).build());
+        modelBuilder.addOpsetImport(OperatorSetIdProto.newBuilder().setDomain("ai.onnx").setVersion(options.getOpsetVersion()).build());
 
+        return modelBuilder;
+    }
+
+    private static GraphProto.Builder getGraphBuilder(OnnxBlock onnxBlock) {
         GraphProto.Builder graphBuilder = GraphProto.newBuilder();
 
         graphBuilder.addAllNode(onnxBlock.getNodes());
@@ -59,11 +348,69 @@ public class OnnxIOExport {
 
         graphBuilder.addAllInitializer(onnxBlock.getParameters());
 
+        return graphBuilder;
+    }
 
-        modelBuilder.setGraph(graphBuilder);
-        return modelBuilder.build();
+
+    /**
+     * Writes the raw data of large initializers to {@code <fileName>.data} and replaces it in the graph
+     * by the standard external data reference. Every tensor starts on a page boundary so that runtimes
+     * can memory-map the weights. Deferred initializers are built one at a time. The side file is only
+     * written if an initializer is moved, a stale one from an earlier export is removed otherwise.
+     */
+    private static void moveToExternalData(GraphProto.Builder graph, OnnxCounter counter, String fileName, long threshold) {
+        Path modelPath = Paths.get(fileName);
+        String location = modelPath.getFileName() + ".data";
+        Path dataPath = modelPath.resolveSibling(location);
+        FileChannel channel = null;
+        try {
+            for (int i = 0; i < graph.getInitializerCount(); i++) {
+                TensorProto tensor = counter.resolve(graph.getInitializer(i));
+                long length = tensor.getRawData().size();
+                if (length == 0 || length < threshold) {
+                    continue;
+                }
+                if (channel == null) {
+                    channel = FileChannel.open(dataPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                long offset = (channel.position() + EXTERNAL_DATA_ALIGNMENT - 1) / EXTERNAL_DATA_ALIGNMENT * EXTERNAL_DATA_ALIGNMENT;
+                channel.position(offset);
+                ByteBuffer buffer = tensor.getRawData().asReadOnlyByteBuffer();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                graph.setInitializer(i, tensor.toBuilder()
+                    .clearRawData()
+                    .setDataLocation(TensorProto.DataLocation.EXTERNAL)
+                    .addExternalData(entry("location", location))
+                    .addExternalData(entry("offset", Long.toString(offset)))
+                    .addExternalData(entry("length", Long.toString(length)))
+                    .build());
+                counter.getDeferred().remove(tensor.getName());
+            }
+            if (channel == null) {
+                Files.deleteIfExists(dataPath);
+            } else {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        } finally {
+            if (channel != null && channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
     }
 
+    private static StringStringEntryProto entry(String key, String value) {
+        return StringStringEntryProto.newBuilder().setKey(key).setValue(value).build();
+    }
 
     private static void save(ModelProto modelProto, String fileName) {
         try (FileOutputStream fos = new FileOutputStream(fileName)) {
@@ -74,4 +421,110 @@ public class OnnxIOExport {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Writes the model without building the complete ModelProto or its serialized byte array. The
+     * graph field is emitted by hand: its length is summed up from the parts first, then nodes,
+     * initializers and value infos are encoded one message at a time through the buffered stream.
+     * Deferred initializers are only headers in the graph: their size follows from dims and data type,
+     * and each is built right before it is written and dropped after, so at most one of them is in
+     * memory at a time.
+     */
+    private static void saveDirect(ModelProto modelWithoutGraph, GraphProto.Builder graph, OnnxCounter counter, String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream os = Channels.newOutputStream(channel)) {
+            CodedOutputStream out = CodedOutputStream.newInstance(os, STREAM_BUFFER_SIZE);
+
+            modelWithoutGraph.writeTo(out);
+
+            out.writeTag(ModelProto.GRAPH_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(computeGraphSize(graph, counter));
+            writeRepeated(out, GraphProto.NODE_FIELD_NUMBER, graph.getNodeList());
+            for (TensorProto initializer : graph.getInitializerList()) {
+                TensorProto tensor = counter.resolve(initializer);
+                if (tensor.getSerializedSize() != computeInitializerSize(initializer, counter)) {
+                    throw new IllegalStateException("initializer " + tensor.getName() + " does not match its header");
+                }
+                out.writeMessage(GraphProto.INITIALIZER_FIELD_NUMBER, tensor);
+            }
+            writeRepeated(out, GraphProto.INPUT_FIELD_NUMBER, graph.getInputList());
+            writeRepeated(out, GraphProto.OUTPUT_FIELD_NUMBER, graph.getOutputList());
+            writeRepeated(out, GraphProto.VALUE_INFO_FIELD_NUMBER, graph.getValueInfoList());
+
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int computeGraphSize(GraphProto.Builder graph, OnnxCounter counter) {
+        long size = computeRepeatedSize(GraphProto.NODE_FIELD_NUMBER, graph.getNodeList())
+            + computeRepeatedSize(GraphProto.INPUT_FIELD_NUMBER, graph.getInputList())
+            + computeRepeatedSize(GraphProto.OUTPUT_FIELD_NUMBER, graph.getOutputList())
+            + computeRepeatedSize(GraphProto.VALUE_INFO_FIELD_NUMBER, graph.getValueInfoList());
+        for (TensorProto initializer : graph.getInitializerList()) {
+            long initializerSize = computeInitializerSize(initializer, counter);
+            size += CodedOutputStream.computeTagSize(GraphProto.INITIALIZER_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt32SizeNoTag((int) initializerSize)
+                + initializerSize;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("graph of " + size + " bytes exceeds the protobuf limit of 2 GB");
+        }
+        return (int) size;
+    }
+
+    /**
+     * The serialized size of the initializer. For a deferred one the header plus its data, which is
+     * raw_data except for float32 without {@link OnnxExportOptions#rawData}, packed float_data then.
+     */
+    private static long computeInitializerSize(TensorProto initializer, OnnxCounter counter) {
+        long size = initializer.getSerializedSize();
+        if (!counter.isDeferred(initializer)) {
+            return size;
+        }
+        long length = initializer.getDimsList().stream().mapToLong(Long::longValue).reduce(1, (a, b) -> a * b)
+            * elementSize(initializer.getDataType());
+        if (length == 0) {
+            return size;
+        }
+        int field = initializer.getDataType() == TensorProto.DataType.FLOAT_VALUE && !counter.getOptions().isRawData()
+            ? TensorProto.FLOAT_DATA_FIELD_NUMBER
+            : TensorProto.RAW_DATA_FIELD_NUMBER;
+        return size + CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag((int) length) + length;
+    }
+
+    private static int elementSize(int dataType) {
+        switch (dataType) {
+            case TensorProto.DataType.INT8_VALUE:
+            case TensorProto.DataType.UINT8_VALUE:
+                return 1;
+            case TensorProto.DataType.FLOAT16_VALUE:
+                return 2;
+            case TensorProto.DataType.FLOAT_VALUE:
+            case TensorProto.DataType.INT32_VALUE:
+                return 4;
+            case TensorProto.DataType.INT64_VALUE:
+            case TensorProto.DataType.DOUBLE_VALUE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("no element size for data type " + dataType);
+        }
+    }
+
+    private static long computeRepeatedSize(int fieldNumber, List<? extends MessageLite> messages) {
+        long size = 0;
+        for (MessageLite message : messages) {
+            size += CodedOutputStream.computeMessageSize(fieldNumber, message);
+        }
+        return size;
+    }
+
+    private static void writeRepeated(CodedOutputStream out, int fieldNumber, List<? extends MessageLite> messages) throws IOException {
+        for (MessageLite message : messages) {
+            out.writeMessage(fieldNumber, message);
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package ai.enpasos.mnist.blocks;
+
+import ai.enpasos.onnx.NodeProto;
+import ai.enpasos.onnx.TensorProto;
+import ai.enpasos.onnx.ValueInfoProto;
+
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Graph level rewrites applied by {@link OnnxIOExport} to the assembled {@link OnnxBlock}
+ * before the GraphProto is built.
+ */
+public class OnnxOptimizer {
+
+    private static final Set<String> MONOTONIC_ACTIVATIONS = Set.of("Relu", "Sigmoid", "Tanh");
+    private static final Set<String> MAX_MIN_REDUCTIONS = Set.of("MaxPool", "ReduceMax", "ReduceMin");
+
+    private OnnxOptimizer() {
+    }
+
+    /**
+     * Evaluates nodes whose inputs are all initializers at export time and replaces them by
+     * the precomputed initializer. Initializers that are no longer referenced are dropped. Deferred
+     * initializers, see {@link OnnxCounter#initializer}, stay deferred.
+     */
+    public static void foldConstants(OnnxBlock onnxBlock, OnnxCounter counter) {
+        Map<String, TensorProto> constants = new HashMap<>();
+        onnxBlock.getParameters().forEach(p -> constants.put(p.getName(), p));
+        List<String> graphOutputs = onnxBlock.getOutputNames();
+
+        List<NodeProto> nodes = new ArrayList<>();
+        Set<String> folded = new HashSet<>();
+        for (NodeProto node : onnxBlock.getNodes()) {
+            boolean constantInputs = node.getInputList().stream().allMatch(constants::containsKey);
+            boolean graphOutput = node.getOutputList().stream().anyMatch(graphOutputs::contains);
+            TensorProto result = constantInputs && !graphOutput ? evaluate(node, constants, counter) : null;
+            if (result == null) {
+                nodes.add(node);
+                continue;
+            }
+            constants.put(result.getName(), result);
+            folded.add(result.getName());
+        }
+        if (folded.isEmpty()) {
+            return;
+        }
+
+        Set<String> referenced = nodes.stream()
+            .flatMap(n -> n.getInputList().stream())
+            .collect(Collectors.toSet());
+        referenced.addAll(graphOutputs);
+
+        List<TensorProto> parameters = new ArrayList<>();
+        onnxBlock.getParameters().stream()
+            .filter(p -> referenced.contains(p.getName()))
+            .forEach(parameters::add);
+        folded.stream()
+            .filter(referenced::contains)
+            .map(constants::get)
+            .forEach(parameters::add);
+
+        List<ValueInfoProto> valueInfos = onnxBlock.getValueInfos().stream()
+            .filter(vi -> !folded.contains(vi.getName()))
+            .collect(Collectors.toList());
+
+        onnxBlock.setNodes(nodes);
+        onnxBlock.setParameters(parameters);
+        onnxBlock.setValueInfos(valueInfos);
+    }
+
+    /**
+     * Moves monotonically non-decreasing elementwise activations behind the max/min reductions
+     * that consume them, e.g. {@code MaxPool(Relu(x))} becomes {@code Relu(MaxPool(x))}. As
+     * {@code f(max(x)) == max(f(x))} for such f the result is unchanged while the activation runs
+     * on the smaller tensor. Only applied if the reduction is the single consumer of the activation.
+     */
+    public static void reorderActivations(OnnxBlock onnxBlock) {
+        List<NodeProto> nodes = new ArrayList<>(onnxBlock.getNodes());
+        List<ValueInfoProto> valueInfos = new ArrayList<>(onnxBlock.getValueInfos());
+        List<String> graphOutputs = onnxBlock.getOutputNames();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<String, Integer> consumers = new HashMap<>();
+            nodes.forEach(n -> n.getInputList().forEach(i -> consumers.merge(i, 1, Integer::sum)));
+
+            for (int i = 0; i < nodes.size() && !changed; i++) {
+                NodeProto activation = nodes.get(i);
+                if (!MONOTONIC_ACTIVATIONS.contains(activation.getOpType())) {
+                    continue;
+                }
+                String between = activation.getOutput(0);
+                if (consumers.getOrDefault(between, 0) != 1 || graphOutputs.contains(between)) {
+                    continue;
+                }
+                for (int j = i + 1; j < nodes.size(); j++) {
+                    NodeProto reduction = nodes.get(j);
+                    if (!reduction.getInputList().contains(between)) {
+                        continue;
+                    }
+                    if (MAX_MIN_REDUCTIONS.contains(reduction.getOpType())
+                        && reduction.getOutputCount() == 1
+                        && reduction.getInputCount() == 1) {
+                        String result = reduction.getOutput(0);
+                        nodes.set(i, reduction.toBuilder()
+                            .setInput(0, activation.getInput(0))
+                            .setOutput(0, between)
+                            .build());
+                        nodes.set(j, activation.toBuilder()
+                            .setInput(0, between)
+                            .setOutput(0, result)
+                            .build());
+                        retypeValueInfo(valueInfos, between, result);
+                        changed = true;
+                    }
+                    break;
+                }
+            }
+        }
+
+        onnxBlock.setNodes(nodes);
+        onnxBlock.setValueInfos(valueInfos);
+    }
+
+    /**
+     * Gives the value info of {@code name} the type of {@code typeSource}.
+     */
+    private static void retypeValueInfo(List<ValueInfoProto> valueInfos, String name, String typeSource) {
+        valueInfos.stream()
+            .filter(vi -> vi.getName().equals(typeSource))
+            .findFirst()
+            .ifPresent(source -> valueInfos.replaceAll(vi -> vi.getName().equals(name)
+                ? vi.toBuilder().setType(source.getType()).build()
+                : vi));
+    }
+
+    private static TensorProto evaluate(NodeProto node, Map<String, TensorProto> constants, OnnxCounter counter) {
+        switch (node.getOpType()) {
+            case "Identity":
+                return counter.rewrite(constants.get(node.getInput(0)), t -> t.toBuilder()
+                    .setName(node.getOutput(0))
+                    .build());
+            case "Reshape":
+                TensorProto data = constants.get(node.getInput(0));
+                long[] shape = int64Data(counter.resolve(constants.get(node.getInput(1))));
+                List<Long> dims = OnnxHelper.convert(reshapedDims(data.getDimsList(), shape));
+                return counter.rewrite(data, t -> t.toBuilder()
+                    .setName(node.getOutput(0))
+                    .clearDims()
+                    .addAllDims(dims)
+                    .build());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Resolves the Reshape target: 0 copies the input dimension, -1 takes the remaining size.
+     */
+    private static long[] reshapedDims(List<Long> inputDims, long[] shape) {
+        long size = inputDims.stream().mapToLong(Long::longValue).reduce(1, (a, b) -> a * b);
+        long[] dims = shape.clone();
+        int inferred = -1;
+        long known = 1;
+        for (int i = 0; i < dims.length; i++) {
+            if (dims[i] == 0) {
+                dims[i] = inputDims.get(i);
+            }
+            if (dims[i] == -1) {
+                inferred = i;
+            } else {
+                known *= dims[i];
+            }
+        }
+        if (inferred >= 0) {
+            dims[inferred] = size / known;
+        }
+        return dims;
+    }
+
+    private static long[] int64Data(TensorProto tensor) {
+        if (!tensor.getRawData().isEmpty()) {
+            LongBuffer buffer = tensor.getRawData().asReadOnlyByteBuffer()
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asLongBuffer();
+            long[] result = new long[buffer.remaining()];
+            buffer.get(result);
+            return result;
+        }
+        return tensor.getInt64DataList().stream().mapToLong(Long::longValue).toArray();
+    }
+}
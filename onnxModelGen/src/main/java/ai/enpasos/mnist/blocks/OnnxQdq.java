@@ -0,0 +1,182 @@
+package ai.enpasos.mnist.blocks;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.types.Shape;
+import ai.enpasos.onnx.AttributeProto;
+import ai.enpasos.onnx.NodeProto;
+import ai.enpasos.onnx.TensorProto;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ai.enpasos.mnist.blocks.OnnxBlock.combine;
+import static ai.enpasos.mnist.blocks.OnnxHelper.convert;
+import static ai.enpasos.mnist.blocks.OnnxHelper.createValueInfoProto;
+
+/**
+ * QuantizeLinear/DequantizeLinear (QDQ) building blocks for int8 export. Activations are quantized
+ * asymmetrically to uint8, weights symmetrically to int8 (zero point 0), optionally per output
+ * channel. ONNX Runtime fuses a Conv or MatMul whose inputs come from DequantizeLinear and whose
+ * output goes into QuantizeLinear into QLinearConv or QLinearMatMul.
+ */
+public class OnnxQdq {
+
+    private OnnxQdq() {
+    }
+
+    /**
+     * QuantizeLinear followed by DequantizeLinear with the uint8 scale and zero point of the range.
+     * The output is the float tensor as the int8 kernels see it.
+     */
+    public static OnnxBlock quantizeDequantize(OnnxCounter counter, OnnxTensor input, float min, float max) {
+        float scale = activationScale(min, max);
+        int zeroPoint = activationZeroPoint(min, max);
+
+        List<OnnxTensor> quantized = combine(List.of("T" + counter.count()), List.of(input.getShape()));
+        List<OnnxTensor> output = combine(List.of("T" + counter.count()), List.of(input.getShape()));
+        String scaleName = "P" + counter.count();
+        String zeroPointName = "P" + counter.count();
+
+        return OnnxBlock.builder()
+            .input(List.of(input))
+            .output(output)
+            .valueInfos(List.of(
+                createValueInfoProto(quantized.get(0), TensorProto.DataType.UINT8_VALUE),
+                createValueInfoProto(output.get(0))
+            ))
+            .nodes(List.of(
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("QuantizeLinear")
+                    .addInput(input.getName())
+                    .addInput(scaleName)
+                    .addInput(zeroPointName)
+                    .addOutput(quantized.get(0).getName())
+                    .build(),
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("DequantizeLinear")
+                    .addInput(quantized.get(0).getName())
+                    .addInput(scaleName)
+                    .addInput(zeroPointName)
+                    .addOutput(output.get(0).getName())
+                    .build()
+            ))
+            .parameters(List.of(
+                floatTensor(scaleName, List.of(), new float[]{scale}),
+                TensorProto.newBuilder()
+                    .setName(zeroPointName)
+                    .setDataType(TensorProto.DataType.UINT8_VALUE)
+                    .setRawData(ByteString.copyFrom(new byte[]{(byte) zeroPoint}))
+                    .build()
+            ))
+            .build();
+    }
+
+    /**
+     * The uint8 scale of an activation range. The range is extended to contain 0, so that zero padding
+     * is exact.
+     */
+    public static float activationScale(float min, float max) {
+        float rmin = Math.min(min, 0f);
+        float rmax = Math.max(max, 0f);
+        return rmax > rmin ? (rmax - rmin) / 255f : 1f;
+    }
+
+    public static int activationZeroPoint(float min, float max) {
+        return Math.max(0, Math.min(255, Math.round(-Math.min(min, 0f) / activationScale(min, max))));
+    }
+
+    /**
+     * The weights as int8 initializer and a DequantizeLinear node. Per channel means one scale for
+     * each index of axis 0, e.g. per output channel of a Conv weight, otherwise one for the tensor.
+     * The int8 initializer is deferred with directWrite, the array has to stay open until the model is written.
+     */
+    public static OnnxBlock dequantizedWeight(OnnxCounter counter, NDArray weights, boolean perChannel) {
+        Shape shape = weights.getShape();
+        int channels = perChannel ? (int) shape.get(0) : 1;
+        float[] scales = scales(weights.toFloatArray(), channels);
+
+        List<OnnxTensor> output = combine(List.of("T" + counter.count()), List.of(shape));
+        String weightName = "P" + counter.count();
+        String scaleName = "P" + counter.count();
+        String zeroPointName = "P" + counter.count();
+        List<Long> scaleDims = perChannel ? List.of((long) channels) : List.of();
+
+        NodeProto.Builder node = NodeProto.newBuilder()
+            .setName("N" + counter.count())
+            .setOpType("DequantizeLinear")
+            .addInput(weightName)
+            .addInput(scaleName)
+            .addInput(zeroPointName)
+            .addOutput(output.get(0).getName());
+        if (perChannel) {
+            node.addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INT)
+                .setName("axis")
+                .setI(0)
+                .build());
+        }
+
+        List<TensorProto> parameters = new ArrayList<>();
+        List<Long> dims = convert(shape.getShape());
+        parameters.add(counter.initializer(weightName, TensorProto.DataType.INT8_VALUE, dims, () -> TensorProto.newBuilder()
+            .setName(weightName)
+            .setDataType(TensorProto.DataType.INT8_VALUE)
+            .addAllDims(dims)
+            .setRawData(ByteString.copyFrom(quantize(weights.toFloatArray(), scales)))
+            .build()));
+        parameters.add(floatTensor(scaleName, scaleDims, scales));
+        parameters.add(TensorProto.newBuilder()
+            .setName(zeroPointName)
+            .setDataType(TensorProto.DataType.INT8_VALUE)
+            .addAllDims(scaleDims)
+            .setRawData(ByteString.copyFrom(new byte[channels]))
+            .build());
+
+        return OnnxBlock.builder()
+            .output(output)
+            .valueInfos(createValueInfoProto(output))
+            .nodes(List.of(node.build()))
+            .parameters(parameters)
+            .build();
+    }
+
+    /**
+     * Symmetric scales in [-127, 127] per channel, i.e. per consecutive slice of the weights.
+     */
+    private static float[] scales(float[] weights, int channels) {
+        int channelSize = weights.length / channels;
+        float[] scales = new float[channels];
+        for (int c = 0; c < channels; c++) {
+            float maxAbs = 0f;
+            for (int i = c * channelSize; i < (c + 1) * channelSize; i++) {
+                maxAbs = Math.max(maxAbs, Math.abs(weights[i]));
+            }
+            scales[c] = maxAbs > 0f ? maxAbs / 127f : 1f;
+        }
+        return scales;
+    }
+
+    private static byte[] quantize(float[] weights, float[] scales) {
+        int channelSize = weights.length / scales.length;
+        byte[] quantized = new byte[weights.length];
+        for (int c = 0; c < scales.length; c++) {
+            for (int i = c * channelSize; i < (c + 1) * channelSize; i++) {
+                // -128 stays unused
+                quantized[i] = (byte) Math.max(-127, Math.min(127, Math.rint(weights[i] / scales[c])));
+            }
+        }
+        return quantized;
+    }
+
+    private static TensorProto floatTensor(String name, List<Long> dims, float[] values) {
+        return TensorProto.newBuilder()
+            .setName(name)
+            .setDataType(TensorProto.DataType.FLOAT_VALUE)
+            .addAllDims(dims)
+            .addAllFloatData(convert(values))
+            .build();
+    }
+}
@@ -0,0 +1,164 @@
+package ai.enpasos.mnist.blocks.ext;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.djl.nn.Parameter;
+import ai.djl.nn.SequentialBlock;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Structured pruning of a trained sequence like {@code MnistBlock}: removes the filters with the
+ * smallest L2 norm from each Conv2dExt and the matching channels from the blocks that consume them,
+ * i.e. the gamma and beta of a LayerNormExt, the input channels of the next convolution (also behind
+ * the channel concatenation of a ParallelBlockWithConcatChannelJoinExt) and the columns of a LinearExt
+ * on the flattened feature map. The parameters are replaced by physically smaller ones, so the export
+ * afterwards contains smaller tensors.
+ *
+ * <p>The pruned model only approximates the trained one, e.g. the statistics of a LayerNormExt now
+ * run over fewer channels, so it needs some fine-tuning. Its parameters no longer match the block
+ * configuration of a freshly built model and cannot be loaded into one.
+ */
+@Slf4j
+public final class ChannelPruner {
+
+    private ChannelPruner() {
+    }
+
+    /**
+     * Prunes the given fraction of the filters of every convolution, at least one filter each is kept.
+     */
+    public static void prune(SequentialBlock sequence, float ratio) {
+        if (ratio < 0f || ratio >= 1f) {
+            throw new IllegalArgumentException("pruning ratio has to be in [0, 1), got " + ratio);
+        }
+        // the kept channels of the current feature map, null as long as all are kept
+        int[] keep = null;
+        // the channels of the current feature map before pruning
+        long channels = 0;
+        for (Block block : sequence.getChildren().values()) {
+            if (block instanceof Conv2dExt) {
+                Conv2dExt conv = (Conv2dExt) block;
+                if (keep != null) {
+                    conv.keepInputChannels(keep);
+                }
+                channels = conv.getFilters();
+                keep = strongest(conv.filterNorms(), ratio);
+                conv.keepFilters(keep);
+            } else if (block instanceof ParallelBlockWithConcatChannelJoinExt) {
+                int[] concatenated = new int[0];
+                long offset = 0;
+                for (Block branch : block.getChildren().values()) {
+                    if (!(branch instanceof Conv2dExt)) {
+                        throw new IllegalArgumentException("cannot prune across a parallel branch " + branch.getClass().getSimpleName());
+                    }
+                    Conv2dExt conv = (Conv2dExt) branch;
+                    if (keep != null) {
+                        conv.keepInputChannels(keep);
+                    }
+                    long branchOffset = offset;
+                    offset += conv.getFilters();
+                    int[] branchKeep = strongest(conv.filterNorms(), ratio);
+                    conv.keepFilters(branchKeep);
+                    concatenated = IntStream.concat(Arrays.stream(concatenated),
+                        Arrays.stream(branchKeep).map(c -> (int) branchOffset + c)).toArray();
+                }
+                channels = offset;
+                keep = concatenated;
+            } else if (block instanceof LayerNormExt) {
+                if (keep != null) {
+                    ((LayerNormExt) block).keepChannels(keep);
+                }
+            } else if (block instanceof LinearExt) {
+                if (keep != null) {
+                    ((LinearExt) block).keepInputChannels(keep, channels);
+                }
+                keep = null;
+            } else if (!block.getParameters().isEmpty()) {
+                throw new IllegalArgumentException("cannot prune across " + block.getClass().getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * The indices of the largest norms, ascending.
+     */
+    static int[] strongest(float[] norms, float ratio) {
+        int count = Math.max(1, Math.round(norms.length * (1f - ratio)));
+        int[] keep = IntStream.range(0, norms.length).boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> norms[i]).reversed())
+            .limit(count)
+            .mapToInt(Integer::intValue)
+            .sorted()
+            .toArray();
+        log.info("keeping {} of {} filters", keep.length, norms.length);
+        return keep;
+    }
+
+    /**
+     * The L2 norm of each slice along axis 0.
+     */
+    static float[] norms(NDArray array) {
+        float[] data = array.toFloatArray();
+        int rows = (int) array.getShape().get(0);
+        int size = data.length / rows;
+        float[] norms = new float[rows];
+        for (int r = 0; r < rows; r++) {
+            double sum = 0;
+            for (int i = r * size; i < (r + 1) * size; i++) {
+                sum += (double) data[i] * data[i];
+            }
+            norms[r] = (float) Math.sqrt(sum);
+        }
+        return norms;
+    }
+
+    /**
+     * A new parameter holding the given entries along the axis. The old parameter is left open, a
+     * trainer may still hold its array; the model's manager frees it.
+     */
+    static Parameter sliced(Parameter parameter, int axis, int[] keep) {
+        Shape shape = parameter.getArray().getShape();
+        long[] dims = shape.getShape().clone();
+        dims[axis] = keep.length;
+        return sliced(parameter, shape, axis, keep, new Shape(dims));
+    }
+
+    /**
+     * As {@link #sliced(Parameter, int, int[])}, but slicing the array seen in the given view shape
+     * and reshaping the result to the target shape.
+     */
+    static Parameter sliced(Parameter parameter, Shape view, int axis, int[] keep, Shape target) {
+        NDArray array = parameter.getArray();
+        float[] data = array.toFloatArray();
+        long[] dims = view.getShape();
+        int outer = (int) new Shape(Arrays.copyOfRange(dims, 0, axis)).size();
+        int size = (int) dims[axis];
+        int inner = (int) new Shape(Arrays.copyOfRange(dims, axis + 1, dims.length)).size();
+        float[] result = new float[outer * keep.length * inner];
+        int position = 0;
+        for (int o = 0; o < outer; o++) {
+            for (int k : keep) {
+                System.arraycopy(data, (o * size + k) * inner, result, position, inner);
+                position += inner;
+            }
+        }
+
+        Parameter replacement = Parameter.builder()
+            .setName(parameter.getName())
+            .setType(parameter.getType())
+            .optRequiresGrad(parameter.requiresGradient())
+            .build();
+        NDArray replacementArray = array.getManager().create(result, target);
+        // as the old array, so that the pruned model can be fine-tuned
+        if (array.hasGradient()) {
+            replacementArray.setRequiresGradient(true);
+        }
+        replacement.setArray(replacementArray);
+        return replacement;
+    }
+}
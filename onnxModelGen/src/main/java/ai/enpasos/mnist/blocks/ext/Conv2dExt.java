@@ -1,26 +1,38 @@
 package ai.enpasos.mnist.blocks.ext;
 
 import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
 import ai.djl.ndarray.types.Shape;
 import ai.djl.nn.Block;
 import ai.djl.nn.convolutional.Conv2d;
 import ai.djl.nn.convolutional.Conv2dOpened;
+import ai.djl.training.ParameterStore;
+import ai.djl.util.PairList;
+import ai.enpasos.mnist.blocks.ActivationRange;
+import ai.enpasos.mnist.blocks.Calibratable;
+import ai.enpasos.mnist.blocks.Calibration;
 import ai.enpasos.mnist.blocks.OnnxBlock;
 import ai.enpasos.mnist.blocks.OnnxCounter;
 import ai.enpasos.mnist.blocks.OnnxIO;
+import ai.enpasos.mnist.blocks.OnnxQdq;
 import ai.enpasos.mnist.blocks.OnnxTensor;
 import ai.enpasos.onnx.AttributeProto;
 import ai.enpasos.onnx.NodeProto;
 import ai.enpasos.onnx.TensorProto;
 import com.google.protobuf.ByteString;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static ai.enpasos.mnist.blocks.OnnxBlock.createOutput;
 import static ai.enpasos.mnist.blocks.OnnxHelper.convert;
+import static ai.enpasos.mnist.blocks.OnnxHelper.createTensorProto;
 import static ai.enpasos.mnist.blocks.OnnxHelper.createValueInfoProto;
 
-public class Conv2dExt extends Conv2dOpened implements OnnxIO {
+public class Conv2dExt extends Conv2dOpened implements OnnxIO, Calibratable {
+
+    private Calibration calibration;
 
     Conv2dExt(Builder builder) {
         super(builder);
@@ -35,8 +47,26 @@ public class Conv2dExt extends Conv2dOpened implements OnnxIO {
         return new Conv2dExt.Builder();
     }
 
+    @Override
+    public void setCalibration(Calibration calibration) {
+        this.calibration = calibration;
+    }
+
+    @Override
+    protected NDList forwardInternal(ParameterStore parameterStore, NDList inputs, boolean training, PairList<String, Object> params) {
+        NDList outputs = super.forwardInternal(parameterStore, inputs, training, params);
+        if (calibration != null) {
+            calibration.record(this, inputs.head(), outputs.head());
+        }
+        return outputs;
+    }
+
     @Override
     public OnnxBlock getOnnxBlock(OnnxCounter counter, List<OnnxTensor> input) {
+        Calibration exportCalibration = counter.getOptions().getCalibration();
+        if (exportCalibration != null && exportCalibration.contains(this)) {
+            return getQuantizedOnnxBlock(counter, input, exportCalibration.getInput(this), exportCalibration.getOutput(this));
+        }
 
         List<OnnxTensor> output = createOutput(List.of("T" + counter.count()), input, this::getOutputShapes);
         NDArray weights = this.parameters.get("weight").getArray();
@@ -47,48 +77,189 @@ public class Conv2dExt extends Conv2dOpened implements OnnxIO {
             .output(output)
             .valueInfos(createValueInfoProto(output))
             .parameters(List.of(
-                TensorProto.newBuilder()
-                    .setName(parameterName)
-                    .setDataType(1)
-                    .addAllDims(convert(weights.getShape().getShape()))
-                    .addAllFloatData(convert(weights))
-                    .build()
+                createTensorProto(counter, parameterName, convert(weights.getShape().getShape()), weights)
             ))
             .nodes(List.of(
-                NodeProto.newBuilder()
-                    .setName("N" + counter.count())
-                    .setOpType("Conv")
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.STRING)
-                        .setName("auto_pad")
-                        .setS(ByteString.copyFromUtf8("SAME_UPPER"))
-                        .build())
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.INTS)
-                        .setName("dilations")
-                        .addAllInts(convert(this.dilation.getShape()))
-                        .build())
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.INT)
-                        .setName("group")
-                        .setI(this.groups)
-                        .build())
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.INTS)
-                        .setName("kernel_shape")
-                        .addAllInts(convert(this.kernelShape.getShape()))
-                        .build())
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.INTS)
-                        .setName("strides")
-                        .addAllInts(convert(this.stride.getShape()))
-                        .build())
-                    .addInput(input.get(0).getName())
-                    .addInput(parameterName)
-                    .addOutput(output.get(0).getName())
-                    .build()
-                )
-            ).build();
+                convNode(counter, input.get(0).getName(), parameterName, output.get(0).getName(), this.kernelShape)
+            )).build();
+    }
+
+    int getFilters() {
+        return this.filters;
+    }
+
+    /**
+     * The L2 norm of each filter, by which {@link ChannelPruner} ranks them.
+     */
+    float[] filterNorms() {
+        return ChannelPruner.norms(this.weight.getArray());
+    }
+
+    /**
+     * Keeps only the given filters, i.e. output channels.
+     */
+    void keepFilters(int[] keep) {
+        this.weight = ChannelPruner.sliced(this.weight, 0, keep);
+        this.parameters.put("weight", this.weight);
+        if (this.bias != null) {
+            this.bias = ChannelPruner.sliced(this.bias, 0, keep);
+            this.parameters.put("bias", this.bias);
+        }
+        this.filters = keep.length;
+    }
+
+    /**
+     * Keeps only the weights on the given input channels.
+     */
+    void keepInputChannels(int[] keep) {
+        if (this.groups != 1) {
+            throw new IllegalArgumentException("input channels of a grouped convolution cannot be pruned");
+        }
+        this.weight = ChannelPruner.sliced(this.weight, 1, keep);
+        this.parameters.put("weight", this.weight);
+    }
+
+    /**
+     * The convolution of this block on the given weight and bias, which may be null.
+     */
+    NDArray convolve(NDArray input, NDArray weight, NDArray bias) {
+        return conv2d(input, weight, bias, this.stride, this.padding, this.dilation, this.groups).head();
+    }
+
+    /**
+     * The Conv between QDQ pairs on input and output and on int8 weights with a scale per filter.
+     */
+    OnnxBlock getQuantizedOnnxBlock(OnnxCounter counter, List<OnnxTensor> input, ActivationRange inputRange, ActivationRange outputRange) {
+        NDArray weights = this.parameters.get("weight").getArray();
+
+        OnnxBlock inputQdq = OnnxQdq.quantizeDequantize(counter, input.get(0), inputRange.getMin(), inputRange.getMax());
+        OnnxBlock weightDq = OnnxQdq.dequantizedWeight(counter, weights, true);
+        List<OnnxTensor> convOutput = createOutput(List.of("T" + counter.count()), input, this::getOutputShapes);
+        OnnxBlock convBlock = OnnxBlock.builder()
+            .input(inputQdq.getOutput())
+            .output(convOutput)
+            .valueInfos(createValueInfoProto(convOutput))
+            .nodes(List.of(
+                convNode(counter, inputQdq.getOutput().get(0).getName(), weightDq.getOutput().get(0).getName(), convOutput.get(0).getName(), this.kernelShape)
+            )).build();
+        OnnxBlock outputQdq = OnnxQdq.quantizeDequantize(counter, convOutput.get(0), outputRange.getMin(), outputRange.getMax());
+
+        OnnxBlock onnxBlock = OnnxBlock.builder()
+            .input(input)
+            .output(outputQdq.getOutput())
+            .build();
+        onnxBlock.addChild(inputQdq);
+        onnxBlock.addChild(weightDq);
+        onnxBlock.addChild(convBlock);
+        onnxBlock.addChild(outputQdq);
+        return onnxBlock;
+    }
+
+    private NodeProto convNode(OnnxCounter counter, String inputName, String weightName, String outputName, Shape kernelShape) {
+        return NodeProto.newBuilder()
+            .setName("N" + counter.count())
+            .setOpType("Conv")
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.STRING)
+                .setName("auto_pad")
+                .setS(ByteString.copyFromUtf8("SAME_UPPER"))
+                .build())
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INTS)
+                .setName("dilations")
+                .addAllInts(convert(this.dilation.getShape()))
+                .build())
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INT)
+                .setName("group")
+                .setI(this.groups)
+                .build())
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INTS)
+                .setName("kernel_shape")
+                .addAllInts(convert(kernelShape.getShape()))
+                .build())
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INTS)
+                .setName("strides")
+                .addAllInts(convert(this.stride.getShape()))
+                .build())
+            .addInput(inputName)
+            .addInput(weightName)
+            .addOutput(outputName)
+            .build();
+    }
+
+    /**
+     * Whether the convolutions can be replaced by a single convolution whose filters are the
+     * concatenation of their (centered, zero padded) kernels. This holds for bias free, ungrouped
+     * convolutions with odd kernels and common stride and dilation, as they all pad "same".
+     */
+    public static boolean isMergeable(List<Conv2dExt> convs) {
+        Conv2dExt first = convs.get(0);
+        return convs.stream().allMatch(c -> !c.includeBias
+            && c.groups == 1
+            && c.stride.equals(first.stride)
+            && c.dilation.equals(first.dilation)
+            && Arrays.stream(c.kernelShape.getShape()).allMatch(k -> k % 2 == 1));
+    }
+
+    /**
+     * Exports the convolutions, all applied to the same input and concatenated along the channel
+     * axis, as one Conv node. Smaller kernels are zero padded around their center to the largest
+     * kernel size and the filters are stacked in branch order.
+     */
+    public static OnnxBlock getMergedOnnxBlock(OnnxCounter counter, List<Conv2dExt> convs, List<OnnxTensor> input, List<OnnxTensor> output) {
+        long kh = convs.stream().mapToLong(c -> c.kernelShape.get(0)).max().getAsLong();
+        long kw = convs.stream().mapToLong(c -> c.kernelShape.get(1)).max().getAsLong();
+        long channels = convs.get(0).parameters.get("weight").getArray().getShape().get(1);
+        long filters = convs.stream().mapToLong(c -> c.parameters.get("weight").getArray().getShape().get(0)).sum();
+
+        Conv2dExt first = convs.get(0);
+        String parameterName = "P" + counter.count();
+        Shape weightShape = new Shape(filters, channels, kh, kw);
+        List<Long> dims = convert(weightShape.getShape());
+        NDManager manager = first.parameters.get("weight").getArray().getManager();
+        TensorProto weightTensor = counter.initializer(parameterName, TensorProto.DataType.FLOAT_VALUE, dims, () -> {
+            try (NDArray weights = manager.create(mergedKernels(convs, channels, kh, kw, filters), weightShape)) {
+                return createTensorProto(counter.getOptions(), parameterName, dims, weights);
+            }
+        });
+
+        return OnnxBlock.builder()
+            .input(input)
+            .output(output)
+            .valueInfos(createValueInfoProto(output))
+            .parameters(List.of(weightTensor))
+            .nodes(List.of(
+                first.convNode(counter, input.get(0).getName(), parameterName, output.get(0).getName(), new Shape(kh, kw))
+            )).build();
+    }
+
+    private static float[] mergedKernels(List<Conv2dExt> convs, long channels, long kh, long kw, long filters) {
+        float[] merged = new float[(int) (filters * channels * kh * kw)];
+        int filterOffset = 0;
+        for (Conv2dExt conv : convs) {
+            NDArray weights = conv.parameters.get("weight").getArray();
+            float[] w = weights.toFloatArray();
+            Shape s = weights.getShape();
+            int ch = (int) s.get(2);
+            int cw = (int) s.get(3);
+            int dh = (int) (kh - ch) / 2;
+            int dw = (int) (kw - cw) / 2;
+            for (int f = 0; f < s.get(0); f++) {
+                for (int c = 0; c < channels; c++) {
+                    for (int y = 0; y < ch; y++) {
+                        for (int x = 0; x < cw; x++) {
+                            merged[(int) ((((filterOffset + f) * channels + c) * kh + y + dh) * kw + x + dw)] =
+                                w[(int) (((f * channels + c) * ch + y) * cw + x)];
+                        }
+                    }
+                }
+            }
+            filterOffset += s.get(0);
+        }
+        return merged;
     }
 
     /**
@@ -0,0 +1,163 @@
+package ai.enpasos.mnist.blocks.ext;
+
+import ai.djl.MalformedModelException;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.AbstractBlock;
+import ai.djl.nn.Block;
+import ai.djl.nn.Parameter;
+import ai.djl.nn.core.LinearOpened;
+import ai.djl.training.ParameterStore;
+import ai.djl.util.PairList;
+import ai.enpasos.mnist.blocks.ActivationRange;
+import ai.enpasos.mnist.blocks.OnnxBlock;
+import ai.enpasos.mnist.blocks.OnnxCounter;
+import ai.enpasos.mnist.blocks.OnnxIO;
+import ai.enpasos.mnist.blocks.OnnxQdq;
+import ai.enpasos.mnist.blocks.OnnxTensor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Quantization-aware training around a Conv2dExt or LinearExt. The forward pass rounds input, weight
+ * and output (before a Linear bias) the way the int8 kernels will, so training adapts to the
+ * rounding; the gradient passes the rounding unchanged (straight-through estimator).
+ *
+ * <p>Activation ranges follow the batch extremes as moving average during training and are saved
+ * with the parameters. The export emits the same QDQ graph as a calibrated block of {@link OnnxQdq},
+ * with these ranges, so inference rounds exactly like training did.
+ */
+public class FakeQuantBlockExt extends AbstractBlock implements OnnxIO {
+
+    private static final byte VERSION = 1;
+    private static final float DEFAULT_MOMENTUM = 0.99f;
+
+    private final Block block;
+    private final float momentum;
+    private final ActivationRange inputRange = new ActivationRange();
+    private final ActivationRange outputRange = new ActivationRange();
+
+    public FakeQuantBlockExt(Block block) {
+        this(block, DEFAULT_MOMENTUM);
+    }
+
+    public FakeQuantBlockExt(Block block, float momentum) {
+        super(VERSION);
+        if (!(block instanceof Conv2dExt) && !(block instanceof LinearExt)) {
+            throw new IllegalArgumentException("fake quantization supports Conv2dExt and LinearExt, got " + block.getClass().getSimpleName());
+        }
+        this.block = addChildBlock(block.getClass().getSimpleName(), block);
+        this.momentum = momentum;
+    }
+
+    @Override
+    protected NDList forwardInternal(ParameterStore parameterStore, NDList inputs, boolean training, PairList<String, Object> params) {
+        NDArray input = inputs.singletonOrThrow();
+        NDArray weight = parameterStore.getValue(block.getParameters().get("weight"), input.getDevice(), training);
+        Parameter biasParameter = block.getParameters().get("bias");
+        NDArray bias = biasParameter == null ? null : parameterStore.getValue(biasParameter, input.getDevice(), training);
+
+        if (training) {
+            inputRange.update(input.min().getFloat(), input.max().getFloat(), momentum);
+        }
+        NDArray x = fakeQuantize(input, inputRange);
+
+        NDArray output;
+        if (block instanceof Conv2dExt) {
+            NDArray w = fakeQuantizeWeight(weight, new int[]{1, 2, 3});
+            output = ((Conv2dExt) block).convolve(x, w, bias);
+            output = fakeQuantize(output, outputRange, training);
+        } else {
+            NDArray w = fakeQuantizeWeight(weight, null);
+            // the export adds the bias behind the quantized MatMul
+            output = LinearOpened.linear(x, w).head();
+            output = fakeQuantize(output, outputRange, training);
+            if (bias != null) {
+                output = output.add(bias);
+            }
+        }
+        return new NDList(output);
+    }
+
+    private NDArray fakeQuantize(NDArray array, ActivationRange range, boolean training) {
+        if (training) {
+            range.update(array.min().getFloat(), array.max().getFloat(), momentum);
+        }
+        return fakeQuantize(array, range);
+    }
+
+    /**
+     * uint8 quantize-dequantize with the scale and zero point {@link OnnxQdq} exports for the range.
+     */
+    private static NDArray fakeQuantize(NDArray array, ActivationRange range) {
+        if (range.isEmpty()) {
+            return array;
+        }
+        float scale = OnnxQdq.activationScale(range.getMin(), range.getMax());
+        int zeroPoint = OnnxQdq.activationZeroPoint(range.getMin(), range.getMax());
+        NDArray rounded = array.div(scale).round().add(zeroPoint).clip(0, 255).sub(zeroPoint).mul(scale);
+        return straightThrough(array, rounded);
+    }
+
+    /**
+     * Symmetric int8 quantize-dequantize, per index of axis 0 if {@code reduceAxes} are given, else per
+     * tensor.
+     */
+    private static NDArray fakeQuantizeWeight(NDArray weight, int[] reduceAxes) {
+        NDArray maxAbs = reduceAxes == null ? weight.abs().max() : weight.abs().max(reduceAxes, true);
+        NDArray scale = maxAbs.div(127f).maximum(Float.MIN_NORMAL);
+        NDArray rounded = weight.div(scale).round().clip(-127, 127).mul(scale);
+        return straightThrough(weight, rounded);
+    }
+
+    /**
+     * The rounded values forward, the gradient of the identity backward.
+     */
+    private static NDArray straightThrough(NDArray array, NDArray rounded) {
+        return array.add(rounded.sub(array).stopGradient());
+    }
+
+    @Override
+    public OnnxBlock getOnnxBlock(OnnxCounter counter, List<OnnxTensor> input) {
+        if (inputRange.isEmpty() || outputRange.isEmpty()) {
+            // never trained, nothing to quantize with
+            return ((OnnxIO) block).getOnnxBlock(counter, input);
+        }
+        if (block instanceof Conv2dExt) {
+            return ((Conv2dExt) block).getQuantizedOnnxBlock(counter, input, inputRange, outputRange);
+        }
+        return ((LinearExt) block).getQuantizedOnnxBlock(counter, input, inputRange, outputRange);
+    }
+
+    @Override
+    public Shape[] getOutputShapes(Shape[] inputShapes) {
+        return block.getOutputShapes(inputShapes);
+    }
+
+    @Override
+    protected void initializeChildBlocks(NDManager manager, DataType dataType, Shape... inputShapes) {
+        block.initialize(manager, dataType, inputShapes);
+    }
+
+    @Override
+    protected void saveMetadata(DataOutputStream os) throws IOException {
+        super.saveMetadata(os);
+        os.writeFloat(inputRange.getMin());
+        os.writeFloat(inputRange.getMax());
+        os.writeFloat(outputRange.getMin());
+        os.writeFloat(outputRange.getMax());
+    }
+
+    @Override
+    protected void loadMetadata(byte loadVersion, DataInputStream is) throws IOException, MalformedModelException {
+        super.loadMetadata(loadVersion, is);
+        inputRange.set(is.readFloat(), is.readFloat());
+        outputRange.set(is.readFloat(), is.readFloat());
+    }
+}
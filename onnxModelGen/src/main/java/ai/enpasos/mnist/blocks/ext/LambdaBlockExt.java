@@ -82,11 +82,15 @@ public class LambdaBlockExt extends LambdaBlockOpened implements OnnxIO {
                 nodeBuilder.setOpType("Reshape")
                     .addInput(shapeName);
                 long size = input.get(0).getShape().size();
+                // with a symbolic batch dimension: keep axis 0 (0) and infer the rest (-1)
+                List<Long> targetShape = ctx.getOptions().getBatchDimParam() == null
+                    ? List.of(1L, size)
+                    : List.of(0L, -1L);
                 onnxBlock.getParameters().add(TensorProto.newBuilder()
                     .setName(shapeName)
                     .setDataType(TensorProto.INT64_DATA_FIELD_NUMBER)
                     .addAllDims(List.of(2L))
-                    .addAllInt64Data(List.of(1L, size))
+                    .addAllInt64Data(targetShape)
                     .build());
                 break;
             case RELU:
@@ -11,10 +11,12 @@ import ai.enpasos.onnx.AttributeProto;
 import ai.enpasos.onnx.NodeProto;
 import ai.enpasos.onnx.TensorProto;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static ai.enpasos.mnist.blocks.OnnxBlock.combine;
 import static ai.enpasos.mnist.blocks.OnnxHelper.convert;
+import static ai.enpasos.mnist.blocks.OnnxHelper.createTensorProto;
 import static ai.enpasos.mnist.blocks.OnnxHelper.createValueInfoProto;
 
 public class LayerNormExt extends LayerNormOpened implements OnnxIO {
@@ -36,6 +38,10 @@ public class LayerNormExt extends LayerNormOpened implements OnnxIO {
     @Override
     public OnnxBlock getOnnxBlock(OnnxCounter counter, List<OnnxTensor> input) {
 
+        if (counter.getOptions().getOpsetVersion() >= 17 && normalizesTrailingAxes(input.get(0).getShape().dimension())) {
+            return nodeLayerNormalization(counter, input);
+        }
+
         OnnxBlock blockMVN = nodeMVN(counter, input);
         OnnxBlock blockMul = nodeMul(counter, blockMVN.getOutput());
         OnnxBlock blockAdd = nodeAdd(counter, blockMul.getOutput());
@@ -54,28 +60,133 @@ public class LayerNormExt extends LayerNormOpened implements OnnxIO {
 
     }
 
-    private OnnxBlock nodeMVN(OnnxCounter counter, List<OnnxTensor> input) {
+    /**
+     * Keeps gamma and beta only on the given channels, if the channel axis is normalized.
+     */
+    void keepChannels(int[] keep) {
+        if (axis != null && Arrays.stream(axis).noneMatch(a -> a == 1)) {
+            return;
+        }
+        gamma = ChannelPruner.sliced(gamma, 0, keep);
+        beta = ChannelPruner.sliced(beta, 0, keep);
+        parameters.put("gamma", gamma);
+        parameters.put("beta", beta);
+        normalizedShape = gamma.getArray().getShape();
+    }
+
+    /**
+     * ONNX LayerNormalization normalizes over all axes from {@code axis} on, which covers DJL's
+     * default (every axis but the batch axis) and explicitly given trailing axes.
+     */
+    private boolean normalizesTrailingAxes(int rank) {
+        if (axis == null) {
+            return true;
+        }
+        int[] sorted = Arrays.stream(axis).map(a -> a < 0 ? a + rank : a).sorted().toArray();
+        return sorted.length > 0 && sorted[0] > 0 && sorted[sorted.length - 1] == rank - 1
+            && sorted[sorted.length - 1] - sorted[0] == sorted.length - 1;
+    }
+
+    private OnnxBlock nodeLayerNormalization(OnnxCounter counter, List<OnnxTensor> input) {
         List<OnnxTensor> output = combine(
             List.of("T" + counter.count()),
             List.of(input.get(0).getShape())
         );
+        long firstAxis = axis == null ? 1 : Arrays.stream(axis).map(a -> a < 0 ? a + input.get(0).getShape().dimension() : a).min().getAsInt();
+        String gammaName = "gamma" + counter.count();
+        String betaName = "beta" + counter.count();
+        NDArray gamma = this.parameters.get("gamma").getArray();
+        NDArray beta = this.parameters.get("beta").getArray();
         return OnnxBlock.builder()
+            .input(input)
             .output(output)
             .valueInfos(createValueInfoProto(output))
             .nodes(List.of(
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("LayerNormalization")
+                    .addAttribute(AttributeProto.newBuilder()
+                        .setType(AttributeProto.AttributeType.INT)
+                        .setName("axis")
+                        .setI(firstAxis)
+                        .build())
+                    .addAttribute(AttributeProto.newBuilder()
+                        .setType(AttributeProto.AttributeType.FLOAT)
+                        .setName("epsilon")
+                        .setF(epsilon)
+                        .build())
+                    .addInput(input.get(0).getName())
+                    .addInput(gammaName)
+                    .addInput(betaName)
+                    .addOutput(output.get(0).getName())
+                    .build()
+            ))
+            .parameters(List.of(
+                createTensorProto(counter, gammaName, convert(gamma.getShape().getShape()), gamma),
+                createTensorProto(counter, betaName, convert(beta.getShape().getShape()), beta)
+            ))
+            .build();
+    }
+
+    /**
+     * MeanVarianceNormalization over the axes [1, 2, 3] of x written as the default axes [0, 2, 3] of x
+     * reshaped to [1, N, C*H*W, 1], so that every sample is its own channel. ONNX Runtime computes
+     * axes [1, 2, 3] across the batch, which is only right for N = 1. The reshaped intermediates get
+     * no value infos, their batch axis is not axis 0.
+     */
+    private OnnxBlock nodeMVN(OnnxCounter counter, List<OnnxTensor> input) {
+        Shape shape = input.get(0).getShape();
+        List<OnnxTensor> output = combine(
+            List.of("T" + counter.count()),
+            List.of(shape)
+        );
+        String grouped = "T" + counter.count();
+        String normalized = "T" + counter.count();
+        String groupedShapeName = "P" + counter.count();
+        String shapeName = "P" + counter.count();
+        return OnnxBlock.builder()
+            .output(output)
+            .valueInfos(createValueInfoProto(output))
+            .nodes(List.of(
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("Reshape")
+                    .addInput(input.get(0).getName())
+                    .addInput(groupedShapeName)
+                    .addOutput(grouped)
+                    .build(),
                 NodeProto.newBuilder()
                     .setName("Node" + counter.count())
                     .setOpType("MeanVarianceNormalization")
                     .addAttribute(AttributeProto.newBuilder()
                         .setType(AttributeProto.AttributeType.INTS)
                         .setName("axes")
-                        .addAllInts(List.of(1L, 2L, 3L))
+                        .addAllInts(List.of(0L, 2L, 3L))
                         .build())
-                    .addInput(input.get(0).getName())
+                    .addInput(grouped)
+                    .addOutput(normalized)
+                    .build(),
+                NodeProto.newBuilder()
+                    .setName("N" + counter.count())
+                    .setOpType("Reshape")
+                    .addInput(normalized)
+                    .addInput(shapeName)
                     .addOutput(output.get(0).getName())
                     .build()
             ))
-            .valueInfos(createValueInfoProto(output))
+            .parameters(List.of(
+                int64Tensor(groupedShapeName, List.of(1L, -1L, shape.size() / shape.get(0), 1L)),
+                int64Tensor(shapeName, List.of(-1L, shape.get(1), shape.get(2), shape.get(3)))
+            ))
+            .build();
+    }
+
+    private static TensorProto int64Tensor(String name, List<Long> values) {
+        return TensorProto.newBuilder()
+            .setName(name)
+            .setDataType(TensorProto.DataType.INT64_VALUE)
+            .addDims(values.size())
+            .addAllInt64Data(values)
             .build();
     }
 
@@ -99,12 +210,7 @@ public class LayerNormExt extends LayerNormOpened implements OnnxIO {
                     .build()
             ))
             .parameters(List.of(
-                TensorProto.newBuilder()
-                    .setName(gammaName)
-                    .setDataType(1)
-                    .addAllDims(convert(gamma.getShape().getShape()))
-                    .addAllFloatData(convert(gamma))
-                    .build()
+                createTensorProto(counter, gammaName, convert(gamma.getShape().getShape()), gamma)
             ))
             .valueInfos(createValueInfoProto(output))
             .build();
@@ -129,12 +235,7 @@ public class LayerNormExt extends LayerNormOpened implements OnnxIO {
                     .build()
             ))
             .parameters(List.of(
-                TensorProto.newBuilder()
-                    .setName(betaName)
-                    .setDataType(1)
-                    .addAllDims(convert(beta.getShape().getShape()))
-                    .addAllFloatData(convert(beta))
-                    .build()
+                createTensorProto(counter, betaName, convert(beta.getShape().getShape()), beta)
             ))
             .valueInfos(createValueInfoProto(output))
             .build();
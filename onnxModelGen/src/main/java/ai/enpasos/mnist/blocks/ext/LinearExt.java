@@ -1,15 +1,24 @@
 package ai.enpasos.mnist.blocks.ext;
 
 import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.types.Shape;
 import ai.djl.nn.Block;
+import ai.djl.nn.Parameter;
 import ai.djl.nn.core.Linear;
 import ai.djl.nn.core.LinearOpened;
+import ai.djl.training.ParameterStore;
+import ai.djl.util.PairList;
 import ai.djl.util.Preconditions;
+import ai.enpasos.mnist.blocks.ActivationRange;
+import ai.enpasos.mnist.blocks.Calibratable;
+import ai.enpasos.mnist.blocks.Calibration;
 import ai.enpasos.mnist.blocks.OnnxBlock;
 import ai.enpasos.mnist.blocks.OnnxCounter;
 import ai.enpasos.mnist.blocks.OnnxIO;
+import ai.enpasos.mnist.blocks.OnnxQdq;
 import ai.enpasos.mnist.blocks.OnnxTensor;
+import ai.enpasos.onnx.AttributeProto;
 import ai.enpasos.onnx.NodeProto;
 import ai.enpasos.onnx.TensorProto;
 
@@ -18,10 +27,12 @@ import java.util.List;
 import static ai.enpasos.mnist.blocks.OnnxBlock.combine;
 import static ai.enpasos.mnist.blocks.OnnxBlock.createOutput;
 import static ai.enpasos.mnist.blocks.OnnxHelper.convert;
+import static ai.enpasos.mnist.blocks.OnnxHelper.createTensorProto;
 import static ai.enpasos.mnist.blocks.OnnxHelper.createValueInfoProto;
 
-public class LinearExt extends LinearOpened implements OnnxIO {
+public class LinearExt extends LinearOpened implements OnnxIO, Calibratable {
 
+    private Calibration calibration;
 
     LinearExt(Builder builder) {
         super(builder);
@@ -36,8 +47,33 @@ public class LinearExt extends LinearOpened implements OnnxIO {
         return new  Builder();
     }
 
+    @Override
+    public void setCalibration(Calibration calibration) {
+        this.calibration = calibration;
+    }
+
+    @Override
+    protected NDList forwardInternal(ParameterStore parameterStore, NDList inputs, boolean training, PairList<String, Object> params) {
+        NDList outputs = super.forwardInternal(parameterStore, inputs, training, params);
+        if (calibration != null) {
+            calibration.record(this, inputs.head(), outputs.head());
+        }
+        return outputs;
+    }
+
     @Override
     public OnnxBlock getOnnxBlock(OnnxCounter counter, List<OnnxTensor> input) {
+        Calibration exportCalibration = counter.getOptions().getCalibration();
+        if (exportCalibration != null && exportCalibration.contains(this)) {
+            // the calibration saw the output after the bias, the MatMul output lies within it shifted by the bias range
+            Parameter bias = this.parameters.get("bias");
+            ActivationRange outputRange = exportCalibration.getOutput(this);
+            ActivationRange matMulRange = new ActivationRange();
+            matMulRange.record(
+                outputRange.getMin() - (bias == null ? 0f : bias.getArray().max().getFloat()),
+                outputRange.getMax() - (bias == null ? 0f : bias.getArray().min().getFloat()));
+            return getQuantizedOnnxBlock(counter, input, exportCalibration.getInput(this), matMulRange);
+        }
 
 
         List<OnnxTensor> output = createOutput(List.of("T" + counter.count()), input, this::getOutputShapes);
@@ -47,9 +83,13 @@ public class LinearExt extends LinearOpened implements OnnxIO {
         long inputDim = input.get(0).getShape().get(1);
         long outputDim = outputShape.get(1);
 
+        if (counter.getOptions().isGemm()) {
+            return nodeGemm(counter, input, output);
+        }
+
         OnnxBlock blockW = nodeW(counter, new Shape(new long[]{inputDim, outputDim}));
         OnnxBlock blockMult = nodeMult(counter, input.get(0), blockW.getOutput().get(0));
-        OnnxBlock blockB = nodeB(counter, blockMult.getOutput());
+        OnnxBlock blockB = nodeB(counter, blockMult.getOutput(), outputDim);
 
         OnnxBlock onnxBlock = OnnxBlock.builder()
             .input(input)
@@ -63,7 +103,85 @@ public class LinearExt extends LinearOpened implements OnnxIO {
         return onnxBlock;
     }
 
-    private OnnxBlock nodeB(OnnxCounter counter, List<OnnxTensor> input) {
+    /**
+     * Keeps only the columns reading the given channels of the flattened feature map, which had the
+     * given number of channels.
+     */
+    void keepInputChannels(int[] keep, long channels) {
+        Shape shape = weight.getArray().getShape();
+        long perChannel = shape.get(1) / channels;
+        weight = ChannelPruner.sliced(weight, new Shape(units, channels, perChannel), 1, keep,
+            new Shape(units, keep.length * perChannel));
+        parameters.put("weight", weight);
+        inputFeatures = keep.length * perChannel;
+    }
+
+    /**
+     * MatMul between QDQ pairs on input and output and on int8 weights, then the float bias Add.
+     */
+    OnnxBlock getQuantizedOnnxBlock(OnnxCounter counter, List<OnnxTensor> input, ActivationRange inputRange, ActivationRange matMulRange) {
+        NDArray weight = this.parameters.get("weight").getArray().transpose();
+        Parameter bias = this.parameters.get("bias");
+
+        OnnxBlock inputQdq = OnnxQdq.quantizeDequantize(counter, input.get(0), inputRange.getMin(), inputRange.getMax());
+        OnnxBlock weightDq = OnnxQdq.dequantizedWeight(counter, weight, false);
+        OnnxBlock blockMult = nodeMult(counter, inputQdq.getOutput().get(0), weightDq.getOutput().get(0));
+        OnnxBlock outputQdq = OnnxQdq.quantizeDequantize(counter, blockMult.getOutput().get(0), matMulRange.getMin(), matMulRange.getMax());
+
+        OnnxBlock onnxBlock = OnnxBlock.builder()
+            .input(input)
+            .build();
+        onnxBlock.addChild(inputQdq);
+        onnxBlock.addChild(weightDq);
+        onnxBlock.addChild(blockMult);
+        onnxBlock.addChild(outputQdq);
+        if (bias == null) {
+            onnxBlock.setOutput(outputQdq.getOutput());
+        } else {
+            OnnxBlock blockB = nodeB(counter, outputQdq.getOutput(), blockMult.getOutput().get(0).getShape().get(1));
+            onnxBlock.addChild(blockB);
+            onnxBlock.setOutput(blockB.getOutput());
+        }
+        return onnxBlock;
+    }
+
+    private OnnxBlock nodeGemm(OnnxCounter counter, List<OnnxTensor> input, List<OnnxTensor> output) {
+        NDArray weight = this.parameters.get("weight").getArray();
+        Parameter bias = this.parameters.get("bias");
+
+        String weightName = "P" + counter.count();
+        NodeProto.Builder nodeBuilder = NodeProto.newBuilder()
+            .setName("N" + counter.count())
+            .setOpType("Gemm")
+            .addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INT)
+                .setName("transB")
+                .setI(1)
+                .build())
+            .addInput(input.get(0).getName())
+            .addInput(weightName)
+            .addOutput(output.get(0).getName());
+
+        OnnxBlock onnxBlock = OnnxBlock.builder()
+            .input(input)
+            .output(output)
+            .valueInfos(createValueInfoProto(output))
+            .build();
+        onnxBlock.getParameters().add(
+            createTensorProto(counter, weightName, convert(weight.getShape().getShape()), weight));
+
+        if (bias != null) {
+            String biasName = "P" + counter.count();
+            nodeBuilder.addInput(biasName);
+            onnxBlock.getParameters().add(
+                createTensorProto(counter, biasName, convert(bias.getArray().getShape().getShape()), bias.getArray()));
+        }
+        onnxBlock.getNodes().add(nodeBuilder.build());
+
+        return onnxBlock;
+    }
+
+    private OnnxBlock nodeB(OnnxCounter counter, List<OnnxTensor> input, long outputDim) {
         List<OnnxTensor> output = combine(
             List.of("T" + counter.count()),
             List.of(input.get(0).getShape())
@@ -82,12 +200,7 @@ public class LinearExt extends LinearOpened implements OnnxIO {
                     .build()
             ))
             .parameters(List.of(
-                TensorProto.newBuilder()
-                    .setName(parameterName)
-                    .setDataType(1)
-                    .addAllDims(List.of(1L, 10L))
-                    .addAllFloatData(convert(this.parameters.get("bias").getArray()))
-                    .build()
+                createTensorProto(counter, parameterName, List.of(1L, outputDim), this.parameters.get("bias").getArray())
             ))
             .build();
     }
@@ -134,12 +247,7 @@ public class LinearExt extends LinearOpened implements OnnxIO {
             ))
             .parameters(List.of(
                 // data
-                TensorProto.newBuilder()
-                    .setName(parameterName1)
-                    .setDataType(1)
-                    .addAllDims(convert(weight.getShape().getShape()))
-                    .addAllFloatData(convert(weight))
-                    .build(),
+                createTensorProto(ctx, parameterName1, convert(weight.getShape().getShape()), weight),
                 // shape
                 TensorProto.newBuilder()
                     .setName(parameterName2)
@@ -34,6 +34,18 @@ public class ParallelBlockWithConcatChannelJoinExt extends ParallelBlock impleme
 
     @Override
     public OnnxBlock getOnnxBlock(OnnxCounter counter, List<OnnxTensor> input) {
+        // calibrated convs are quantized one by one, each with its own output range
+        if (counter.getOptions().isMergeParallelConvs() && counter.getOptions().getCalibration() == null) {
+            List<Conv2dExt> convs = this.getChildren().values().stream()
+                .filter(Conv2dExt.class::isInstance)
+                .map(Conv2dExt.class::cast)
+                .collect(Collectors.toList());
+            if (convs.size() == this.getChildren().size() && Conv2dExt.isMergeable(convs)) {
+                List<OnnxTensor> output = createOutput(List.of("T" + counter.count()), input, this::getOutputShapes);
+                return Conv2dExt.getMergedOnnxBlock(counter, convs, input, output);
+            }
+        }
+
         OnnxBlock onnxBlock = OnnxBlock.builder()
             .input(input)
             .valueInfos(createValueInfoProto(input))
@@ -29,6 +29,7 @@ import ai.enpasos.mnist.blocks.OnnxIO;
 import ai.enpasos.mnist.blocks.OnnxTensor;
 import ai.enpasos.onnx.AttributeProto;
 import ai.enpasos.onnx.NodeProto;
+import ai.enpasos.onnx.TensorProto;
 
 import java.util.List;
 
@@ -97,51 +98,49 @@ public class RescaleBlockExt extends AbstractBlock implements OnnxIO {
     }
 
     private OnnxBlock nodeMin(OnnxCounter counter, List<OnnxTensor> input) {
-        List<OnnxTensor> output = combine(
-            List.of("T" + counter.count()),
-            List.of(new Shape(input.get(0).getShape().get(0), 1, 1, 1))
-        );
-        return OnnxBlock.builder()
-            .output(output)
-            .valueInfos(createValueInfoProto(output))
-            .nodes(List.of(
-                NodeProto.newBuilder()
-                    .setName("N" + counter.count())
-                    .setOpType("ReduceMin")
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.INTS)
-                        .setName("axes")
-                        .addAllInts(List.of(1L,2L,3L))
-                        .build())
-                    .addInput(input.get(0).getName())
-                    .addOutput(output.get(0).getName())
-                    .build())
-            )
-            .build();
-     }
+        return nodeReduce(counter, input, "ReduceMin");
+    }
+
     private OnnxBlock nodeMax(OnnxCounter counter, List<OnnxTensor> input) {
+        return nodeReduce(counter, input, "ReduceMax");
+    }
+
+    private OnnxBlock nodeReduce(OnnxCounter counter, List<OnnxTensor> input, String opType) {
         List<OnnxTensor> output = combine(
             List.of("T" + counter.count()),
             List.of(new Shape(input.get(0).getShape().get(0), 1, 1, 1))
         );
-        return OnnxBlock.builder()
+        List<Long> axes = List.of(1L, 2L, 3L);
+        NodeProto.Builder nodeBuilder = NodeProto.newBuilder()
+            .setName("N" + counter.count())
+            .setOpType(opType)
+            .addInput(input.get(0).getName())
+            .addOutput(output.get(0).getName());
+        OnnxBlock onnxBlock = OnnxBlock.builder()
             .output(output)
             .valueInfos(createValueInfoProto(output))
-            .nodes(List.of(
-                NodeProto.newBuilder()
-                    .setName("N" + counter.count())
-                    .setOpType("ReduceMax")
-                    .addAttribute(AttributeProto.newBuilder()
-                        .setType(AttributeProto.AttributeType.INTS)
-                        .setName("axes")
-                        .addAllInts(List.of(1L,2L,3L))
-                        .build())
-                    .addInput(input.get(0).getName())
-                    .addOutput(output.get(0).getName())
-                    .build())
-            )
             .build();
+        if (counter.getOptions().getOpsetVersion() >= 18) {
+            // axes moved from an attribute to an input in opset 18
+            String axesName = "P" + counter.count();
+            nodeBuilder.addInput(axesName);
+            onnxBlock.getParameters().add(TensorProto.newBuilder()
+                .setName(axesName)
+                .setDataType(TensorProto.DataType.INT64_VALUE)
+                .addDims(axes.size())
+                .addAllInt64Data(axes)
+                .build());
+        } else {
+            nodeBuilder.addAttribute(AttributeProto.newBuilder()
+                .setType(AttributeProto.AttributeType.INTS)
+                .setName("axes")
+                .addAllInts(axes)
+                .build());
+        }
+        onnxBlock.getNodes().add(nodeBuilder.build());
+        return onnxBlock;
     }
+
     private OnnxBlock nodeSub(OnnxCounter counter, List<OnnxTensor> inputA, List<OnnxTensor> inputB) {
         List<OnnxTensor> output = combine(
             List.of("T" + counter.count()),
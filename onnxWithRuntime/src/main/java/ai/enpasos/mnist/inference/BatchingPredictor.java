@@ -0,0 +1,149 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.inference.Predictor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces single requests into batches for {@link Predictor#batchPredict(List)}.
+ *
+ * <p>Requests are queued by {@link #submit(Object)}. A worker thread closes a batch as soon as it holds
+ * {@code maxBatchSize} requests or {@code maxWait} has passed since its first request, runs it through
+ * the predictor and completes the futures. The predictor is only used from the worker thread and
+ * stays owned by the caller.
+ */
+@Slf4j
+public class BatchingPredictor<I, O> implements AutoCloseable {
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final Predictor<I, O> predictor;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request<I, O>> queue;
+    private final Thread worker;
+    // serializes submit and close, so no request is queued after the worker saw the predictor closed
+    private final Object lock = new Object();
+
+    private volatile boolean running = true;
+
+    public BatchingPredictor(Predictor<I, O> predictor, int maxBatchSize, Duration maxWait, int queueCapacity) {
+        this.predictor = predictor;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.worker = new Thread(this::processBatches, "batching-predictor");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues the input for the next batch. The future fails with a {@link RejectedExecutionException}
+     * if the queue is full or the predictor is closed.
+     */
+    public CompletableFuture<O> submit(I input) {
+        Request<I, O> request = new Request<>(input);
+        synchronized (lock) {
+            if (!running || !queue.offer(request)) {
+                request.result.completeExceptionally(new RejectedExecutionException("batching predictor is " + (running ? "overloaded" : "closed")));
+            }
+        }
+        return request.result;
+    }
+
+    private void processBatches() {
+        List<Request<I, O>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request<I, O> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Request<I, O> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                predict(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // poll would throw again at once: give up on everything collected or queued
+                Thread.currentThread().interrupt();
+                synchronized (lock) {
+                    running = false;
+                }
+                reject(batch);
+                break;
+            }
+        }
+        rejectQueued();
+    }
+
+    private void reject(List<Request<I, O>> requests) {
+        requests.forEach(r -> r.result.completeExceptionally(new RejectedExecutionException("batching predictor is closed")));
+        requests.clear();
+    }
+
+    private void rejectQueued() {
+        List<Request<I, O>> left = new ArrayList<>();
+        queue.drainTo(left);
+        reject(left);
+    }
+
+    private void predict(List<Request<I, O>> batch) {
+        List<I> inputs = new ArrayList<>(batch.size());
+        batch.forEach(r -> inputs.add(r.input));
+        try {
+            List<O> outputs = predictor.batchPredict(inputs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(outputs.get(i));
+            }
+        } catch (Exception e) {
+            log.error("batch of {} failed", batch.size(), e);
+            batch.forEach(r -> r.result.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Stops accepting requests, finishes the queued ones and waits for the worker to end.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            running = false;
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // nothing is queued after running is false, this only covers a worker that ended early
+        rejectQueued();
+    }
+
+    private static final class Request<I, O> {
+        private final I input;
+        private final CompletableFuture<O> result = new CompletableFuture<>();
+
+        private Request(I input) {
+            this.input = input;
+        }
+    }
+}
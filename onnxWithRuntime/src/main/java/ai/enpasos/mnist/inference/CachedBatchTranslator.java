@@ -0,0 +1,73 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.NoBatchifyTranslator;
+import ai.djl.translate.TranslatorContext;
+import lombok.Getter;
+
+/**
+ * Feeds a batch of images from a {@link TensorCache} to the model. The input is the index of the first
+ * image; the mapped pixels are handed to the engine as they are and the output is the predicted class
+ * of each image in the batch.
+ *
+ * <p>With {@code uint8Input} the uint8 pixels go to the model as {@code [N, H, W, 1]} without any
+ * conversion; the model has to be exported with {@code OnnxExportOptions.uint8Input}.
+ */
+public class CachedBatchTranslator implements NoBatchifyTranslator<Integer, int[]> {
+
+    private final TensorCache cache;
+    @Getter
+    private final int batchSize;
+    private final boolean uint8Input;
+
+    public CachedBatchTranslator(TensorCache cache, int batchSize) {
+        this(cache, batchSize, false);
+    }
+
+    public CachedBatchTranslator(TensorCache cache, int batchSize, boolean uint8Input) {
+        if (uint8Input && cache.getPixelType() != TensorCache.PixelType.UINT8) {
+            throw new IllegalArgumentException("uint8 input needs a cache with uint8 pixels");
+        }
+        this.cache = cache;
+        this.batchSize = batchSize;
+        this.uint8Input = uint8Input;
+    }
+
+    @Override
+    public NDList processInput(TranslatorContext ctx, Integer from) {
+        int length = Math.min(batchSize, cache.size() - from);
+        if (uint8Input) {
+            // a single channel makes the cached HW layout the NHWC layout the model reads
+            Shape nhwc = new Shape(length, cache.getHeight(), cache.getWidth(), 1);
+            return new NDList(ctx.getNDManager().create(cache.pixels(from, length), nhwc, DataType.UINT8));
+        }
+        Shape shape = new Shape(length, 1, cache.getHeight(), cache.getWidth());
+        if (cache.getPixelType() == TensorCache.PixelType.FLOAT32) {
+            return new NDList(ctx.getNDManager().create(cache.pixels(from, length), shape, DataType.FLOAT32));
+        }
+        // uint8 pixels are a quarter of the size on disk but have to be scaled here
+        NDArray pixels = ctx.getNDManager().create(cache.pixels(from, length), shape, DataType.UINT8);
+        return new NDList(pixels.toType(DataType.FLOAT32, false).div(255f));
+    }
+
+    @Override
+    public int[] processOutput(TranslatorContext ctx, NDList list) {
+        NDArray logits = list.singletonOrThrow();
+        int classes = (int) logits.getShape().get(logits.getShape().dimension() - 1);
+        float[] values = logits.toFloatArray();
+        int[] predictions = new int[values.length / classes];
+        for (int i = 0; i < predictions.length; i++) {
+            int best = 0;
+            for (int c = 1; c < classes; c++) {
+                if (values[i * classes + c] > values[i * classes + best]) {
+                    best = c;
+                }
+            }
+            predictions[i] = best;
+        }
+        return predictions;
+    }
+}
@@ -0,0 +1,14 @@
+package ai.enpasos.mnist.inference;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The best class of an image and its probability.
+ */
+@Data
+@AllArgsConstructor
+public class ClassScore {
+    private int index;
+    private float score;
+}
@@ -1,98 +1,322 @@
 package ai.enpasos.mnist.inference;
 
-import ai.djl.MalformedModelException;
 import ai.djl.Model;
+import ai.djl.inference.Predictor;
 import ai.djl.modality.Classifications;
 import ai.djl.modality.cv.Image;
-import ai.djl.modality.cv.ImageFactory;
 import ai.djl.modality.cv.util.NDImageUtils;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.translate.Batchifier;
+import ai.djl.translate.TranslateException;
 import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.*;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 @Slf4j
 public class DJLTest {
+
+    private static final String TEST_DATA = "./onnxWithRuntime/mnist-test-data.zip";
+    private static final String TEST_DATA_CACHE = "./onnxWithRuntime/mnist-test-data.bin";
+    private static final String TEST_DATA_UINT8_CACHE = "./onnxWithRuntime/mnist-test-data-uint8.bin";
+    private static final int PREFETCH = 256;
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final String LATENCY_REPORT = "./onnxWithRuntime/latency-report.json";
+
     public static void main(String[] args) throws Exception {
 
+        if (args.length > 0 && args[0].equals("optimize")) {
+            // the build passes the model path, as it runs in the module directory
+            OptimizedModels.write(Paths.get(args.length > 1 ? args[1] : "./models/mnist.onnx"), OrtSessionProfile.fromEnvironment());
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("batched")) {
+            testBatchedClassifications(
+                    "./models/mnist.onnx",
+                    TEST_DATA
+            );
+            return;
+        }
+        if (args.length > 0 && args[0].equals("parallel")) {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            testParallelClassifications(
+                    "./models/mnist.onnx",
+                    TEST_DATA,
+                    threads
+            );
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("cached")) {
+            int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            testCachedClassifications(
+                    "./models/mnist.onnx",
+                    TEST_DATA,
+                    TEST_DATA_CACHE,
+                    TensorCache.PixelType.FLOAT32,
+                    batchSize
+            );
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("uint8")) {
+            int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            testCachedClassifications(
+                    "./models/mnist-uint8.onnx",
+                    TEST_DATA,
+                    TEST_DATA_UINT8_CACHE,
+                    TensorCache.PixelType.UINT8,
+                    batchSize
+            );
+            return;
+        }
+
+        if (args.length > 0 && List.of("int8", "qat", "pruned").contains(args[0])) {
+            int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            testCachedClassifications(
+                    "./models/mnist-" + args[0] + ".onnx",
+                    TEST_DATA,
+                    TEST_DATA_CACHE,
+                    TensorCache.PixelType.FLOAT32,
+                    batchSize
+            );
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("argmax")) {
+            testHeadClassifications(
+                    "./models/mnist-argmax.onnx",
+                    TEST_DATA
+            );
+            return;
+        }
+
         testClassifications(
                 "./models/mnist.onnx",
-                "./onnxWithRuntime/data/mnist_png/testing/"
+                TEST_DATA
         );
 
     }
 
-    private static void testClassifications(String modelPath, String dataPath) throws IOException, MalformedModelException {
-        Map<String,List<Image>> data = getData(dataPath);
+    private static void testClassifications(String modelPath, String dataPath) throws IOException {
+        LatencyReport report = new LatencyReport();
+        try (Model model = loadModel(modelPath);
+             Stream<LabeledImage> data = getData(dataPath, report)) {
+            var predictor = model.newPredictor(new TimingTranslator<>(getImageClassificationsTranslator(), report));
 
+            int[] errors_total = {0, 0};
+            data.forEach(sample -> {
+                try {
+                    long start = System.nanoTime();
+                    var classifications = predictor.predict(sample.getImage());
+                    report.get(LatencyReport.Stage.REQUEST).recordSince(start);
+                    if (!classifications.best().getClassName().equals(sample.getLabel())) {
+                        errors_total[0]++;
+                    }
+                    errors_total[1]++;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    throw new RuntimeException(e);
+                }
+            });
 
-        Model model = Model.newInstance("model", "OnnxRuntime");
-        try (InputStream is = Files.newInputStream(Paths.get(modelPath))) {
-            model.load(is);
-            var predictor = model.newPredictor(getImageClassificationsTranslator());
+            log.info("{} wrong classified images in {} non trained testimages", errors_total[0], errors_total[1]);
+
+        }
+        report.write(Paths.get(LATENCY_REPORT));
+    }
 
+    /**
+     * Like {@link #testClassifications} for a model that ends in the ARGMAX or TOP_K head, so there is
+     * no softmax or sorting on the Java side.
+     */
+    private static void testHeadClassifications(String modelPath, String dataPath) throws IOException {
+        LatencyReport report = new LatencyReport();
+        try (Model model = loadModel(modelPath);
+             Stream<LabeledImage> data = getData(dataPath, report);
+             var predictor = model.newPredictor(new TimingTranslator<>(new HeadTranslator(), report))) {
             int[] errors_total = {0, 0};
-            data.forEach((label, images) -> {
-                images.forEach(image -> {
+            data.forEach(sample -> {
+                try {
+                    long start = System.nanoTime();
+                    ClassScore best = predictor.predict(sample.getImage());
+                    report.get(LatencyReport.Stage.REQUEST).recordSince(start);
+                    if (best.getIndex() != Integer.parseInt(sample.getLabel())) {
+                        errors_total[0]++;
+                    }
+                    errors_total[1]++;
+                } catch (TranslateException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            log.info("{} wrong classified images in {} non trained testimages", errors_total[0], errors_total[1]);
+        }
+        report.write(Paths.get(LATENCY_REPORT));
+    }
+
+    /**
+     * Sends every image as a single request through a {@link BatchingPredictor}, which coalesces them
+     * into batches. Needs a model exported with a symbolic batch dimension. The request latency includes
+     * the time spent waiting for a batch.
+     */
+    private static void testBatchedClassifications(String modelPath, String dataPath) throws IOException, InterruptedException {
+        LatencyReport report = new LatencyReport();
+        try (Model model = loadModel(modelPath);
+             Stream<LabeledImage> data = getData(dataPath, report)) {
+            try (var predictor = model.newPredictor(new TimingTranslator<>(getImageClassificationsTranslator(), report));
+                 var batchingPredictor = new BatchingPredictor<>(predictor, 64, Duration.ofMillis(5), MAX_IN_FLIGHT)) {
+
+                LongAdder errors = new LongAdder();
+                LongAdder total = new LongAdder();
+                Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+                for (LabeledImage sample : (Iterable<LabeledImage>) data::iterator) {
+                    inFlight.acquire();
+                    long start = System.nanoTime();
+                    batchingPredictor.submit(sample.getImage()).whenComplete((classifications, e) -> {
+                        report.get(LatencyReport.Stage.REQUEST).recordSince(start);
+                        if (e != null || !classifications.best().getClassName().equals(sample.getLabel())) {
+                            errors.increment();
+                        }
+                        total.increment();
+                        inFlight.release();
+                    });
+                }
+                inFlight.acquire(MAX_IN_FLIGHT);
+
+                log.info("{} wrong classified images in {} non trained testimages", errors.sum(), total.sum());
+            }
+        }
+        report.write(Paths.get(LATENCY_REPORT));
+    }
+
+    /**
+     * Spreads the images over a fork-join pool. Predictors are not thread safe, so each worker borrows
+     * one of {@code threads} predictors from a pool for every image and the counts go to LongAdders.
+     */
+    private static void testParallelClassifications(String modelPath, String dataPath, int threads) throws Exception {
+        LatencyReport report = new LatencyReport();
+        Model model = loadModel(modelPath);
+
+        BlockingQueue<Predictor<Image, Classifications>> predictors = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            predictors.add(model.newPredictor(new TimingTranslator<>(getImageClassificationsTranslator(), report)));
+        }
+
+        LongAdder errors = new LongAdder();
+        LongAdder total = new LongAdder();
+        Semaphore inFlight = new Semaphore(2 * threads);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Stream<LabeledImage> data = getData(dataPath, report)) {
+            for (LabeledImage sample : (Iterable<LabeledImage>) data::iterator) {
+                inFlight.acquire();
+                pool.execute(() -> {
+                    Predictor<Image, Classifications> predictor = null;
                     try {
-                        var classifications = predictor.predict(image);
-                        if (!classifications.best().getClassName().equals(label.toString())) {
-                            errors_total[0]++;
+                        predictor = predictors.take();
+                        long start = System.nanoTime();
+                        var classifications = predictor.predict(sample.getImage());
+                        report.get(LatencyReport.Stage.REQUEST).recordSince(start);
+                        if (!classifications.best().getClassName().equals(sample.getLabel())) {
+                            errors.increment();
                         }
-                        errors_total[1]++;
+                        total.increment();
                     } catch (Exception e) {
                         e.printStackTrace();
-                        throw new RuntimeException(e);
+                        errors.increment();
+                        total.increment();
+                    } finally {
+                        if (predictor != null) {
+                            predictors.add(predictor);
+                        }
+                        inFlight.release();
                     }
                 });
-            });
+            }
+            inFlight.acquire(2 * threads);
+        } finally {
+            pool.shutdown();
+            predictors.forEach(Predictor::close);
+            model.close();
+        }
 
-            log.info("{} wrong classified images in {} non trained testimages", errors_total[0], errors_total[1]);
+        log.info("{} wrong classified images in {} non trained testimages ({} threads)", errors.sum(), total.sum(), threads);
+        report.write(Paths.get(LATENCY_REPORT));
+    }
 
+    /**
+     * Runs the test set from a memory-mapped {@link TensorCache}, which is built from the PNGs on the
+     * first run. Batch sizes above 1 need a model exported with a symbolic batch dimension. With
+     * uint8 pixels the model is expected to take them as they are.
+     */
+    private static void testCachedClassifications(String modelPath, String dataPath, String cachePath, TensorCache.PixelType pixelType, int batchSize) throws IOException, TranslateException {
+        Path cacheFile = Paths.get(cachePath);
+        if (!Files.exists(cacheFile)) {
+            try (Stream<LabeledImage> data = getData(dataPath)) {
+                TensorCache.write(data, cacheFile, pixelType);
+            }
         }
-    }
+        TensorCache cache = TensorCache.open(cacheFile);
+        LatencyReport report = new LatencyReport();
 
-    private static Map<String,List<Image>> getData(String dataPath) {
-        Map<String,List<Image>> data = new TreeMap<>();
-        try (Stream<Path> stream = Files.list(Paths.get(dataPath))) {
-            stream.filter(file -> Files.isDirectory(file))
-                    .map(Path::getFileName)
-                    .forEach(dirname -> {
-                        List<Image> images = new ArrayList<>();
-                        data.put(dirname.toString(), images);
-                        try (Stream<Path> stream2 = Files.list(Paths.get(dataPath + dirname + "/"))) {
-                            stream2
-                                    .filter(file -> !Files.isDirectory(file))
-                                    .forEach(path -> {
-                                        try {
-                                            images.add(ImageFactory.getInstance().fromFile(path));
-                                        } catch (Exception e) {
-                                            e.printStackTrace();
-                                            throw new RuntimeException(e);
-                                        }
-                                    });
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            throw new RuntimeException(e);
+        try (Model model = loadModel(modelPath)) {
+            try (var predictor = model.newPredictor(new TimingTranslator<>(new CachedBatchTranslator(cache, batchSize, pixelType == TensorCache.PixelType.UINT8), report))) {
+                int errors = 0;
+                for (int from = 0; from < cache.size(); from += batchSize) {
+                    long start = System.nanoTime();
+                    int[] predictions = predictor.predict(from);
+                    report.get(LatencyReport.Stage.REQUEST).recordSince(start);
+                    for (int i = 0; i < predictions.length; i++) {
+                        if (predictions[i] != cache.label(from + i)) {
+                            errors++;
                         }
-                    });
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+                    }
+                }
+                log.info("{} wrong classified images in {} non trained testimages", errors, cache.size());
+            }
         }
-        return data;
+        report.write(Paths.get(LATENCY_REPORT));
+    }
+
+    /**
+     * The session settings come from ort.* system properties or ORT_* environment variables, see
+     * {@link OrtSessionProfile#fromEnvironment()}. An up-to-date artifact of {@link OptimizedModels}
+     * is loaded instead of the model when there is one.
+     */
+    private static Model loadModel(String modelPath) throws IOException {
+        OrtSessionProfile profile = OrtSessionProfile.fromEnvironment();
+        Optional<Path> optimized = OptimizedModels.find(Paths.get(modelPath));
+        if (optimized.isPresent()) {
+            return OptimizedModels.forOptimized(profile).load(optimized.get());
+        }
+        return profile.load(Paths.get(modelPath));
+    }
+
+    /**
+     * The test images decoded in the background, ahead of the inference consuming them.
+     */
+    private static Stream<LabeledImage> getData(String dataPath) {
+        return PrefetchingImageLoader.stream(Paths.get(dataPath), PREFETCH);
+    }
+
+    private static Stream<LabeledImage> getData(String dataPath, LatencyReport report) {
+        return PrefetchingImageLoader.stream(Paths.get(dataPath), PREFETCH, report.get(LatencyReport.Stage.DECODE));
     }
 
     private static Translator<Image, Classifications> getImageClassificationsTranslator() {
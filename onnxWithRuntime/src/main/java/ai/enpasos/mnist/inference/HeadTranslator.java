@@ -0,0 +1,38 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+
+/**
+ * For models exported with the ARGMAX or TOP_K head of {@code OnnxExportOptions}: the graph already
+ * computes the best class and its probability, so only those two numbers are read from the output.
+ */
+public class HeadTranslator implements Translator<Image, ClassScore> {
+
+    @Override
+    public NDList processInput(TranslatorContext ctx, Image input) {
+        NDArray array = input.toNDArray(ctx.getNDManager(), Image.Flag.GRAYSCALE);
+        return new NDList(NDImageUtils.toTensor(array));
+    }
+
+    @Override
+    public ClassScore processOutput(TranslatorContext ctx, NDList list) {
+        // ARGMAX yields scalars per image, TOP_K vectors sorted best first
+        NDArray index = list.get(0);
+        NDArray score = list.get(1);
+        if (index.getShape().isScalar()) {
+            return new ClassScore((int) index.getLong(), score.getFloat());
+        }
+        return new ClassScore((int) index.getLong(0), score.getFloat(0));
+    }
+
+    @Override
+    public Batchifier getBatchifier() {
+        return Batchifier.STACK;
+    }
+}
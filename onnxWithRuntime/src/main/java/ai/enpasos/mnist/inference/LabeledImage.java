@@ -0,0 +1,15 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.modality.cv.Image;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A test image together with the label taken from its directory name.
+ */
+@Data
+@AllArgsConstructor
+public class LabeledImage {
+    private String label;
+    private Image image;
+}
@@ -0,0 +1,74 @@
+package ai.enpasos.mnist.inference;
+
+import com.google.gson.GsonBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One {@link LatencyHistogram} per stage of an evaluation run, written out as a JSON report with
+ * percentiles in microseconds and the throughput of whole requests.
+ */
+@Slf4j
+public class LatencyReport {
+
+    public enum Stage {
+        DECODE, PROCESS_INPUT, FORWARD, PROCESS_OUTPUT, REQUEST
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final long startNanos = System.nanoTime();
+
+    public LatencyReport() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    public void write(Path file) throws IOException {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long requests = get(Stage.REQUEST).getCount();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("requests", requests);
+        report.put("seconds", seconds);
+        report.put("throughput_per_second", requests / seconds);
+        Map<String, Object> stages = new LinkedHashMap<>();
+        histograms.forEach((stage, histogram) -> {
+            if (histogram.getCount() > 0) {
+                stages.put(stage.name().toLowerCase(Locale.ROOT), summary(histogram));
+            }
+        });
+        report.put("stages_us", stages);
+
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+        }
+        log.info("latency report for {} requests ({} per second) written to {}", requests, String.format("%.1f", requests / seconds), file);
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("mean", histogram.getMean() / 1000);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            summary.put(PERCENTILE_NAMES[i], histogram.percentile(PERCENTILES[i]) / 1000.0);
+        }
+        summary.put("max", histogram.getMax() / 1000.0);
+        return summary;
+    }
+}
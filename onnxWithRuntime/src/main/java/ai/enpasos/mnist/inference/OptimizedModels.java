@@ -0,0 +1,96 @@
+package ai.enpasos.mnist.inference;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Ahead-of-time graph optimization of an exported model, so inference processes do not repeat it at
+ * every start.
+ *
+ * <p>For {@code mnist.onnx} ONNX Runtime writes {@code mnist.optimized.onnx} and the ORT flatbuffer
+ * format {@code mnist.ort} next to it. The default level is EXTENDED_OPT: ALL_OPT adds layout
+ * transformations for the CPU the optimization runs on, which would make the artifacts hardware
+ * specific.
+ */
+@Slf4j
+public final class OptimizedModels {
+
+    private static final String OPTIMIZED_ONNX = ".optimized.onnx";
+    private static final String ORT = ".ort";
+
+    private OptimizedModels() {
+    }
+
+    public static Path optimizedOnnxPath(Path modelPath) {
+        return sibling(modelPath, OPTIMIZED_ONNX);
+    }
+
+    public static Path ortPath(Path modelPath) {
+        return sibling(modelPath, ORT);
+    }
+
+    private static Path sibling(Path modelPath, String suffix) {
+        String name = modelPath.getFileName().toString();
+        String base = name.endsWith(".onnx") ? name.substring(0, name.length() - ".onnx".length()) : name;
+        return modelPath.resolveSibling(base + suffix);
+    }
+
+    /**
+     * Writes both optimized artifacts. Thread and memory settings of the profile are kept, the level
+     * defaults to EXTENDED_OPT.
+     */
+    public static void write(Path modelPath, OrtSessionProfile profile) throws OrtException {
+        OptLevel level = profile.getOptLevel() == null ? OptLevel.EXTENDED_OPT : profile.getOptLevel();
+        write(modelPath, profile, level, optimizedOnnxPath(modelPath), Map.of());
+        write(modelPath, profile, level, ortPath(modelPath), Map.of("session.save_model_format", "ORT"));
+    }
+
+    private static void write(Path modelPath, OrtSessionProfile profile, OptLevel level, Path target, Map<String, String> configEntries) throws OrtException {
+        Map<String, String> entries = new TreeMap<>(profile.getConfigEntries());
+        entries.putAll(configEntries);
+        OrtSessionProfile writer = profile.toBuilder()
+                .optLevel(level)
+                .optimizedModelPath(target.toString())
+                .configEntries(entries)
+                .build();
+        writer.createSession(modelPath).close();
+        log.info("{} optimized with {} to {}", modelPath, level, target);
+    }
+
+    /**
+     * The ORT artifact if there is one at least as new as the model, else the optimized ONNX artifact
+     * under the same condition.
+     */
+    public static Optional<Path> find(Path modelPath) throws IOException {
+        if (!Files.exists(modelPath)) {
+            return Optional.empty();
+        }
+        for (Path candidate : List.of(ortPath(modelPath), optimizedOnnxPath(modelPath))) {
+            if (Files.exists(candidate)
+                    && Files.getLastModifiedTime(candidate).compareTo(Files.getLastModifiedTime(modelPath)) >= 0) {
+                return Optional.of(candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The profile for an artifact written by {@link #write}: its graph is already optimized, so unless
+     * the profile sets a level the optimizers are switched off.
+     */
+    static OrtSessionProfile forOptimized(OrtSessionProfile profile) {
+        if (profile.getOptLevel() != null) {
+            return profile;
+        }
+        return profile.toBuilder().optLevel(OptLevel.NO_OPT).build();
+    }
+}
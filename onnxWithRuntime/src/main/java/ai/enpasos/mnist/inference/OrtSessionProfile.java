@@ -0,0 +1,136 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.Model;
+import ai.djl.onnxruntime.engine.OrtNDManager;
+import ai.djl.onnxruntime.engine.OrtSymbolBlock;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * ONNX Runtime session settings for a deployment. Unset fields keep the ONNX Runtime defaults.
+ *
+ * <p>{@link #fromEnvironment()} reads each field from a system property like {@code -Dort.intraOpNumThreads=2}
+ * or else from the matching environment variable like {@code ORT_INTRA_OP_NUM_THREADS=2}, so the
+ * profile can change per deployment without a rebuild. DJL 0.15 does not pass session options
+ * through {@code Model.load}, so {@link #load(Path)} creates the session itself and hands it to the
+ * model as its block.
+ */
+@Slf4j
+@Data
+@Builder(toBuilder = true)
+public class OrtSessionProfile {
+
+    /**
+     * NO_OPT, BASIC_OPT, EXTENDED_OPT or ALL_OPT.
+     */
+    OptLevel optLevel;
+
+    Integer intraOpNumThreads;
+
+    Integer interOpNumThreads;
+
+    /**
+     * SEQUENTIAL or PARALLEL; interOpNumThreads only matters for PARALLEL.
+     */
+    ExecutionMode executionMode;
+
+    Boolean cpuArenaAllocator;
+
+    Boolean memoryPatternOptimization;
+
+    /**
+     * Where ONNX Runtime writes the graph after its optimizations.
+     */
+    String optimizedModelPath;
+
+    /**
+     * Further session config entries, e.g. {@code session.save_model_format=ORT}.
+     */
+    @Builder.Default
+    Map<String, String> configEntries = new TreeMap<>();
+
+    public static OrtSessionProfile fromEnvironment() {
+        return OrtSessionProfile.builder()
+                .optLevel(setting("optLevel", OptLevel::valueOf))
+                .intraOpNumThreads(setting("intraOpNumThreads", Integer::valueOf))
+                .interOpNumThreads(setting("interOpNumThreads", Integer::valueOf))
+                .executionMode(setting("executionMode", ExecutionMode::valueOf))
+                .cpuArenaAllocator(setting("cpuArenaAllocator", Boolean::valueOf))
+                .memoryPatternOptimization(setting("memoryPatternOptimization", Boolean::valueOf))
+                .optimizedModelPath(setting("optimizedModelPath", Function.identity()))
+                .build();
+    }
+
+    private static <T> T setting(String name, Function<String, T> parser) {
+        String value = System.getProperty("ort." + name);
+        if (value == null) {
+            value = System.getenv("ORT_" + name.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT));
+        }
+        return value == null || value.isBlank() ? null : parser.apply(value.trim());
+    }
+
+    public OrtSession.SessionOptions toSessionOptions() throws OrtException {
+        // the environment loads the native library the options are created in
+        OrtEnvironment.getEnvironment();
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+        if (optLevel != null) {
+            options.setOptimizationLevel(optLevel);
+        }
+        if (intraOpNumThreads != null) {
+            options.setIntraOpNumThreads(intraOpNumThreads);
+        }
+        if (interOpNumThreads != null) {
+            options.setInterOpNumThreads(interOpNumThreads);
+        }
+        if (executionMode != null) {
+            options.setExecutionMode(executionMode);
+        }
+        if (cpuArenaAllocator != null) {
+            options.setCPUArenaAllocator(cpuArenaAllocator);
+        }
+        if (memoryPatternOptimization != null) {
+            options.setMemoryPatternOptimization(memoryPatternOptimization);
+        }
+        if (optimizedModelPath != null) {
+            options.setOptimizedModelFilePath(optimizedModelPath);
+        }
+        for (Map.Entry<String, String> entry : configEntries.entrySet()) {
+            options.addConfigEntry(entry.getKey(), entry.getValue());
+        }
+        return options;
+    }
+
+    public OrtSession createSession(Path modelPath) throws OrtException {
+        try (OrtSession.SessionOptions options = toSessionOptions()) {
+            return OrtEnvironment.getEnvironment().createSession(modelPath.toString(), options);
+        }
+    }
+
+    /**
+     * A DJL OnnxRuntime model running the file in a session with this profile.
+     */
+    public Model load(Path modelPath) throws IOException {
+        log.info("loading {} with {}", modelPath, this);
+        Model model = Model.newInstance("model", "OnnxRuntime");
+        try {
+            model.setBlock(new OrtSymbolBlock(createSession(modelPath), (OrtNDManager) model.getNDManager()));
+        } catch (OrtException e) {
+            model.close();
+            throw new IOException("ONNX model " + modelPath + " cannot be loaded", e);
+        }
+        return model;
+    }
+}
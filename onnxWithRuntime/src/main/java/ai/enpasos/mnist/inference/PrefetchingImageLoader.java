@@ -0,0 +1,192 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Streams the labeled images of a {@code <label>/<image>.png} directory tree, or of a zip archive
+ * with that layout.
+ *
+ * <p>A background thread decodes the images into a bounded queue while the consumer runs inference,
+ * so at most {@code prefetch} decoded images are held in memory at any time. Closing the stream stops
+ * the decoder.
+ */
+@Slf4j
+public class PrefetchingImageLoader implements Iterator<LabeledImage>, AutoCloseable {
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final Thread decoder;
+    private final LatencyHistogram decodeTimes;
+    private Object next;
+
+    private PrefetchingImageLoader(Path source, int prefetch, LatencyHistogram decodeTimes) {
+        this.queue = new ArrayBlockingQueue<>(prefetch);
+        this.decodeTimes = decodeTimes;
+        this.decoder = new Thread(() -> decode(source), "image-decoder");
+        this.decoder.setDaemon(true);
+        this.decoder.start();
+    }
+
+    /**
+     * @param source a directory, or a zip file whose PNG entries live in per label directories
+     */
+    public static Stream<LabeledImage> stream(Path source, int prefetch) {
+        return stream(source, prefetch, null);
+    }
+
+    /**
+     * @param decodeTimes receives the decode time of every image, may be null
+     */
+    public static Stream<LabeledImage> stream(Path source, int prefetch, LatencyHistogram decodeTimes) {
+        PrefetchingImageLoader loader = new PrefetchingImageLoader(source, prefetch, decodeTimes);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(loader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(loader::close);
+    }
+
+    private void decode(Path source) {
+        try {
+            if (Files.isDirectory(source)) {
+                decodeDirectory(source);
+            } else {
+                decodeZip(source);
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Errors too: without a terminal element the consumer would wait forever
+            try {
+                queue.put(e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void decodeDirectory(Path dataPath) throws IOException, InterruptedException {
+        for (Path labelDir : list(dataPath, true)) {
+            String label = labelDir.getFileName().toString();
+            for (Path file : list(labelDir, false)) {
+                long start = System.nanoTime();
+                Image image = ImageFactory.getInstance().fromFile(file);
+                recordDecode(start);
+                queue.put(new LabeledImage(label, image));
+            }
+        }
+    }
+
+    /**
+     * Reads the PNG entries in place. ZipFile indexes the central directory once and then seeks to
+     * each entry, so there is no extraction step and no per-image file open.
+     */
+    private void decodeZip(Path zipPath) throws IOException, InterruptedException {
+        try (ZipFile zip = new ZipFile(zipPath.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String label = labelOf(entry);
+                if (label == null) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                Image image;
+                try (InputStream is = zip.getInputStream(entry)) {
+                    image = ImageFactory.getInstance().fromInputStream(is);
+                }
+                recordDecode(start);
+                queue.put(new LabeledImage(label, image));
+            }
+        }
+    }
+
+    /**
+     * The name of the directory holding a PNG entry, e.g. 7 for data/mnist_png/testing/7/1234.png.
+     */
+    private static String labelOf(ZipEntry entry) {
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.endsWith(".png")) {
+            return null;
+        }
+        int end = name.lastIndexOf('/');
+        if (end <= 0) {
+            return null;
+        }
+        return name.substring(name.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    private void recordDecode(long startNanos) {
+        if (decodeTimes != null) {
+            decodeTimes.recordSince(startNanos);
+        }
+    }
+
+    private static List<Path> list(Path dir, boolean directories) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.filter(path -> Files.isDirectory(path) == directories)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the next image", e);
+            }
+            if (next instanceof IOException) {
+                throw new UncheckedIOException((IOException) next);
+            }
+            if (next instanceof RuntimeException) {
+                throw (RuntimeException) next;
+            }
+            if (next instanceof Error) {
+                throw (Error) next;
+            }
+            if (next instanceof Throwable) {
+                throw new IllegalStateException("decoding the images failed", (Throwable) next);
+            }
+        }
+        return next != END;
+    }
+
+    @Override
+    public LabeledImage next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LabeledImage image = (LabeledImage) next;
+        next = null;
+        return image;
+    }
+
+    @Override
+    public void close() {
+        decoder.interrupt();
+    }
+}
@@ -0,0 +1,152 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.modality.cv.Image;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * The decoded test set in a single memory-mapped file, so repeated runs skip PNG decoding.
+ *
+ * <p>Layout (little endian): a {@value #HEADER_SIZE} byte header with magic, version, pixel type,
+ * count, height and width, then the pixels of all images as uint8 or as float32 scaled to [0, 1], then
+ * one label byte per image. {@link #pixels(int, int)} hands out views of the mapped block without
+ * copying.
+ */
+@Slf4j
+public class TensorCache {
+
+    public static final int HEADER_SIZE = 32;
+
+    private static final int MAGIC = 0x43544E4D; // "MNTC"
+    private static final int VERSION = 1;
+
+    @Getter
+    public enum PixelType {
+        UINT8(1), FLOAT32(4);
+
+        private final int bytes;
+
+        PixelType(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final ByteBuffer mapped;
+    @Getter
+    private final PixelType pixelType;
+    private final int count;
+    @Getter
+    private final int height;
+    @Getter
+    private final int width;
+
+    private TensorCache(ByteBuffer mapped) {
+        this.mapped = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a tensor cache file of version " + VERSION);
+        }
+        this.pixelType = PixelType.values()[mapped.getInt(8)];
+        this.count = mapped.getInt(12);
+        this.height = mapped.getInt(16);
+        this.width = mapped.getInt(20);
+    }
+
+    public static TensorCache open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            return new TensorCache(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Decodes the images once and writes them as a cache file.
+     */
+    public static void write(Stream<LabeledImage> images, Path file, PixelType pixelType) throws IOException {
+        ByteArrayOutputStream labels = new ByteArrayOutputStream();
+        int count = 0;
+        int height = 0;
+        int width = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            ByteBuffer buffer = null;
+            for (Iterator<LabeledImage> it = images.iterator(); it.hasNext(); ) {
+                LabeledImage sample = it.next();
+                Raster raster = toBufferedImage(sample.getImage()).getRaster();
+                if (buffer == null) {
+                    height = raster.getHeight();
+                    width = raster.getWidth();
+                    buffer = ByteBuffer.allocate(height * width * pixelType.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+                } else if (raster.getHeight() != height || raster.getWidth() != width) {
+                    throw new IllegalArgumentException("all images need the same size, got " + raster.getWidth() + "x" + raster.getHeight());
+                }
+                buffer.clear();
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int value = raster.getSample(x, y, 0);
+                        if (pixelType == PixelType.UINT8) {
+                            buffer.put((byte) value);
+                        } else {
+                            buffer.putFloat(value / 255f);
+                        }
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                labels.write(Integer.parseInt(sample.getLabel()));
+                count++;
+            }
+            channel.write(ByteBuffer.wrap(labels.toByteArray()));
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(pixelType.ordinal())
+                    .putInt(count)
+                    .putInt(height)
+                    .putInt(width);
+            header.clear();
+            channel.write(header, 0);
+        }
+        log.info("{} images of {}x{} written to {}", count, width, height, file);
+    }
+
+    private static BufferedImage toBufferedImage(Image image) {
+        Object wrapped = image.getWrappedImage();
+        if (!(wrapped instanceof BufferedImage)) {
+            throw new IllegalArgumentException("expected an image of the BufferedImageFactory, got " + wrapped.getClass());
+        }
+        return (BufferedImage) wrapped;
+    }
+
+    /**
+     * A read-only view of the pixels of {@code length} consecutive images, shaped {@code [length, 1, H, W]}.
+     */
+    public ByteBuffer pixels(int from, int length) {
+        int imageBytes = height * width * pixelType.getBytes();
+        ByteBuffer view = mapped.duplicate();
+        view.position(HEADER_SIZE + from * imageBytes);
+        view.limit(HEADER_SIZE + (from + length) * imageBytes);
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int label(int index) {
+        return mapped.get(HEADER_SIZE + count * height * width * pixelType.getBytes() + index);
+    }
+
+    public int size() {
+        return count;
+    }
+}
@@ -0,0 +1,61 @@
+package ai.enpasos.mnist.inference;
+
+import ai.djl.ndarray.NDList;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+
+/**
+ * Wraps a translator and records the time of its {@code processInput} and {@code processOutput}, and
+ * of the engine forward pass between them, into a {@link LatencyReport}.
+ *
+ * <p>The predictor calls both on the same context, once per input of a batch, with one forward pass in
+ * between. The forward time is therefore taken from the end of the last {@code processInput} to the
+ * start of the first {@code processOutput} of the context.
+ */
+public class TimingTranslator<I, O> implements Translator<I, O> {
+
+    private static final String INPUT_DONE = "timing.inputDone";
+
+    private final Translator<I, O> translator;
+    private final LatencyReport report;
+
+    public TimingTranslator(Translator<I, O> translator, LatencyReport report) {
+        this.translator = translator;
+        this.report = report;
+    }
+
+    @Override
+    public void prepare(TranslatorContext ctx) throws Exception {
+        translator.prepare(ctx);
+    }
+
+    @Override
+    public NDList processInput(TranslatorContext ctx, I input) throws Exception {
+        long start = System.nanoTime();
+        NDList list = translator.processInput(ctx, input);
+        long end = System.nanoTime();
+        report.get(LatencyReport.Stage.PROCESS_INPUT).record(end - start);
+        ctx.setAttachment(INPUT_DONE, new long[]{end});
+        return list;
+    }
+
+    @Override
+    public O processOutput(TranslatorContext ctx, NDList list) throws Exception {
+        long start = System.nanoTime();
+        // the context's attachments cannot hold null, so a consumed mark is set to 0
+        long[] inputDone = (long[]) ctx.getAttachment(INPUT_DONE);
+        if (inputDone != null && inputDone[0] != 0) {
+            report.get(LatencyReport.Stage.FORWARD).record(start - inputDone[0]);
+            inputDone[0] = 0;
+        }
+        O output = translator.processOutput(ctx, list);
+        report.get(LatencyReport.Stage.PROCESS_OUTPUT).recordSince(start);
+        return output;
+    }
+
+    @Override
+    public Batchifier getBatchifier() {
+        return translator.getBatchifier();
+    }
+}